@@ -24,16 +24,22 @@ import uk.co.thinkofdeath.patchtools.wrappers.ClassWrapper;
 import uk.co.thinkofdeath.patchtools.wrappers.FieldWrapper;
 import uk.co.thinkofdeath.patchtools.wrappers.MethodWrapper;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Stream;
 
 public class PatchScope {
 
     private Map<String, ClassWrapper> classMappings = Maps.newHashMap();
+    private Map<ClassWrapper, String> classNames = Maps.newHashMap();
     private Map<MethodWrapper, String> methodMappings = Maps.newHashMap();
+    private Map<String, List<MethodWrapper>> methodIndex = Maps.newHashMap();
     private Map<FieldWrapper, String> fieldMappings = Maps.newHashMap();
+    private Map<String, List<FieldWrapper>> fieldIndex = Maps.newHashMap();
     private Map<MethodNode, Map<PatchInstruction, Integer>> methodInstructionMap = Maps.newHashMap();
     private Map<MethodNode, Map<String, LabelNode>> methodLabelMap = Maps.newHashMap();
+    // Child scopes only hold what was put into them, lookups
+    // fall through to the parents
     private final PatchScope parent;
 
     public PatchScope() {
@@ -46,9 +52,9 @@ public class PatchScope {
 
     public PatchScope duplicate() {
         PatchScope patchScope = new PatchScope();
-        patchScope.classMappings = Maps.newHashMap(classMappings);
-        patchScope.methodMappings = Maps.newHashMap(methodMappings);
-        patchScope.fieldMappings = Maps.newHashMap(fieldMappings);
+        classMappings.forEach((name, cls) -> patchScope.putClass(cls, name));
+        methodMappings.forEach(patchScope::putMapping);
+        fieldMappings.forEach(patchScope::putMapping);
         return patchScope;
     }
 
@@ -64,104 +70,143 @@ public class PatchScope {
     }
 
     public boolean hasClass(ClassWrapper classWrapper) {
-        return classMappings.containsValue(classWrapper)
-            || (parent != null && parent.hasClass(classWrapper));
+        for (PatchScope scope = this; scope != null; scope = scope.parent) {
+            if (scope.classNames.containsKey(classWrapper)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public boolean putClass(ClassWrapper classWrapper, String name) {
-        return classMappings.put(name, classWrapper) != null;
+        ClassWrapper old = classMappings.put(name, classWrapper);
+        if (old != null && name.equals(classNames.get(old))) {
+            classNames.remove(old);
+            classMappings.forEach((n, cls) -> {
+                if (cls == old) classNames.putIfAbsent(cls, n);
+            });
+        }
+        classNames.putIfAbsent(classWrapper, name);
+        return old != null;
     }
 
     public ClassWrapper getClass(String name) {
-        ClassWrapper cls = classMappings.get(name);
-        if (cls == null && parent != null) {
-            cls = parent.getClass(name);
+        for (PatchScope scope = this; scope != null; scope = scope.parent) {
+            ClassWrapper cls = scope.classMappings.get(name);
+            if (cls != null) {
+                return cls;
+            }
         }
-        return cls;
+        return null;
     }
 
     public String getClass(ClassWrapper cls) {
-        return classMappings.entrySet().stream()
-            .filter(e -> e.getValue() == cls)
-            .map(Map.Entry::getKey)
-            .findFirst().orElse(null);
+        for (PatchScope scope = this; scope != null; scope = scope.parent) {
+            String name = scope.classNames.get(cls);
+            // A child may have mapped the name to something else
+            if (name != null && getClass(name) == cls) {
+                return name;
+            }
+        }
+        return null;
     }
 
     public boolean hasMethod(MethodWrapper methodWrapper) {
-        return methodMappings.containsKey(methodWrapper)
-            || (parent != null && parent.hasMethod(methodWrapper));
+        return getMethod(methodWrapper) != null;
     }
 
     public boolean putMethod(MethodWrapper methodWrapper, String name, String desc) {
         if (methodWrapper == null) throw new IllegalArgumentException();
-        return methodMappings.put(methodWrapper, name + desc) != null;
-    }
-
-    public String getMethod(MethodWrapper methodWrapper) {
-        return methodMappings.get(methodWrapper);
+        return putMapping(methodWrapper, name + desc);
     }
 
-    public MethodWrapper getMethod(ClassWrapper owner, String name, String desc) {
-        String joined = name + desc;
-        return getMethodStream()
-            .filter(m -> m.has(owner))
-            .filter(m -> getMethodDesc(m).equals(joined))
-            .findFirst().orElse(null);
+    private boolean putMapping(MethodWrapper methodWrapper, String key) {
+        String old = methodMappings.put(methodWrapper, key);
+        if (!key.equals(old)) {
+            if (old != null) {
+                methodIndex.get(old).remove(methodWrapper);
+            }
+            methodIndex.computeIfAbsent(key, k -> new ArrayList<>(1)).add(methodWrapper);
+        }
+        return old != null;
     }
 
-    private Stream<MethodWrapper> getMethodStream() {
-        if (parent == null) {
-            return methodMappings.keySet().stream();
+    public String getMethod(MethodWrapper methodWrapper) {
+        for (PatchScope scope = this; scope != null; scope = scope.parent) {
+            String key = scope.methodMappings.get(methodWrapper);
+            if (key != null) {
+                return key;
+            }
         }
-        return Stream.concat(methodMappings.keySet().stream(), parent.getMethodStream());
+        return null;
     }
 
-    private String getMethodDesc(MethodWrapper methodWrapper) {
-        String key = methodMappings.get(methodWrapper);
-        if (key == null) {
-            return parent.getMethodDesc(methodWrapper);
+    public MethodWrapper getMethod(ClassWrapper owner, String name, String desc) {
+        String joined = name + desc;
+        for (PatchScope scope = this; scope != null; scope = scope.parent) {
+            List<MethodWrapper> methods = scope.methodIndex.get(joined);
+            if (methods == null) continue;
+            for (MethodWrapper m : methods) {
+                // Skip it if a child has mapped it to something else
+                if (m.has(owner) && (scope == this || joined.equals(getMethod(m)))) {
+                    return m;
+                }
+            }
         }
-        return key;
+        return null;
     }
 
     public boolean hasField(FieldWrapper field) {
-        return fieldMappings.containsKey(field)
-            || (parent != null && parent.hasField(field));
+        return getField(field) != null;
     }
 
     public boolean putField(FieldWrapper fieldWrapper, String name, String descriptor) {
-        return fieldMappings.put(fieldWrapper, name + "::" + descriptor) != null;
-    }
-
-    public String getField(FieldWrapper fieldWrapper) {
-        return fieldMappings.get(fieldWrapper);
+        return putMapping(fieldWrapper, name + "::" + descriptor);
     }
 
-    public FieldWrapper getField(ClassWrapper owner, String name, String desc) {
-        String joined = name + "::" + desc;
-        return getFieldStream()
-            .filter(f -> f.has(owner))
-            .filter(f -> getFieldDesc(f).equals(joined))
-            .findFirst().orElse(null);
+    private boolean putMapping(FieldWrapper fieldWrapper, String key) {
+        String old = fieldMappings.put(fieldWrapper, key);
+        if (!key.equals(old)) {
+            if (old != null) {
+                fieldIndex.get(old).remove(fieldWrapper);
+            }
+            fieldIndex.computeIfAbsent(key, k -> new ArrayList<>(1)).add(fieldWrapper);
+        }
+        return old != null;
     }
 
-    private Stream<FieldWrapper> getFieldStream() {
-        if (parent == null) {
-            return fieldMappings.keySet().stream();
+    public String getField(FieldWrapper fieldWrapper) {
+        for (PatchScope scope = this; scope != null; scope = scope.parent) {
+            String key = scope.fieldMappings.get(fieldWrapper);
+            if (key != null) {
+                return key;
+            }
         }
-        return Stream.concat(fieldMappings.keySet().stream(), parent.getFieldStream());
+        return null;
     }
 
-    private String getFieldDesc(FieldWrapper fieldWrapper) {
-        String key = fieldMappings.get(fieldWrapper);
-        if (key == null) {
-            return parent.getFieldDesc(fieldWrapper);
+    public FieldWrapper getField(ClassWrapper owner, String name, String desc) {
+        String joined = name + "::" + desc;
+        for (PatchScope scope = this; scope != null; scope = scope.parent) {
+            List<FieldWrapper> fields = scope.fieldIndex.get(joined);
+            if (fields == null) continue;
+            for (FieldWrapper f : fields) {
+                if (f.has(owner) && (scope == this || joined.equals(getField(f)))) {
+                    return f;
+                }
+            }
         }
-        return key;
+        return null;
     }
 
     public Map<PatchInstruction, Integer> getInstructMap(MethodNode node) {
-        return methodInstructionMap.get(node);
+        for (PatchScope scope = this; scope != null; scope = scope.parent) {
+            Map<PatchInstruction, Integer> map = scope.methodInstructionMap.get(node);
+            if (map != null) {
+                return map;
+            }
+        }
+        return null;
     }
 
     public void putInstructMap(MethodNode node, Map<PatchInstruction, Integer> instMap) {
@@ -169,8 +214,11 @@ public class PatchScope {
     }
 
     public LabelNode getLabel(MethodNode node, String name) {
-        if (methodLabelMap.containsKey(node)) {
-            return methodLabelMap.get(node).get(name);
+        for (PatchScope scope = this; scope != null; scope = scope.parent) {
+            Map<String, LabelNode> labels = scope.methodLabelMap.get(node);
+            if (labels != null && labels.containsKey(name)) {
+                return labels.get(name);
+            }
         }
         return null;
     }
@@ -183,11 +231,11 @@ public class PatchScope {
     }
 
     public void merge(PatchScope scope) {
-        classMappings.putAll(scope.classMappings);
-        methodMappings.putAll(scope.methodMappings);
-        fieldMappings.putAll(scope.fieldMappings);
+        scope.classMappings.forEach((name, cls) -> putClass(cls, name));
+        scope.methodMappings.forEach(this::putMapping);
+        scope.fieldMappings.forEach(this::putMapping);
         methodInstructionMap.putAll(scope.methodInstructionMap);
-        methodLabelMap.putAll(scope.methodLabelMap);
+        scope.methodLabelMap.forEach((node, labels) -> labels.forEach((name, label) -> putLabel(node, label, name)));
     }
 
     public void clearLabels(MethodNode methodNode) {
@@ -16,6 +16,7 @@
 
 package uk.co.thinkofdeath.patchtools;
 
+import uk.co.thinkofdeath.patchtools.matching.MatchCache;
 import uk.co.thinkofdeath.patchtools.matching.MatchGenerator;
 import uk.co.thinkofdeath.patchtools.patch.LineReader;
 import uk.co.thinkofdeath.patchtools.patch.PatchClasses;
@@ -23,16 +24,44 @@ import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 public class Patcher {
 
     private final ClassSet classSet;
+    private ForkJoinPool pool;
+    private MatchCache cache;
+    private PatchScope previousScope;
+    private Map<String, String> previousFingerprints;
 
     public Patcher(ClassSet classSet) {
         this.classSet = classSet;
         classSet.simplify();
     }
 
+    public Patcher(ClassSet classSet, ForkJoinPool pool) {
+        this(classSet);
+        this.pool = pool;
+    }
+
+    // Solved matches are stored in and loaded from the cache
+    // when set
+    public void setMatchCache(MatchCache cache) {
+        this.cache = cache;
+    }
+
+    // Groups whose classes have the same fingerprints as
+    // in the previous run reuse the previous matches instead
+    // of being matched again
+    public void setPrevious(PatchScope previousScope, Map<String, String> previousFingerprints) {
+        if (previousScope != null && previousFingerprints == null) {
+            throw new IllegalArgumentException("A previous scope needs the fingerprints it was created with");
+        }
+        this.previousScope = previousScope;
+        this.previousFingerprints = previousFingerprints;
+    }
+
     public PatchScope apply(InputStream inputStream) {
         return apply(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
     }
@@ -56,7 +85,10 @@ public class Patcher {
     }
 
     public PatchScope apply(PatchClasses patchClasses, PatchScope patchScope) {
-        MatchGenerator generator = new MatchGenerator(classSet, patchClasses, patchScope);
+        MatchGenerator generator = new MatchGenerator(classSet, patchClasses, patchScope, pool, cache);
+        if (previousScope != null) {
+            generator.setPrevious(previousScope, previousFingerprints);
+        }
         PatchScope foundScope = generator.apply();
         if (foundScope == null) {
             return null;
@@ -22,6 +22,7 @@ import uk.co.thinkofdeath.patchtools.instruction.Instruction;
 import uk.co.thinkofdeath.patchtools.instruction.instructions.Utils;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassWrapper;
+import uk.co.thinkofdeath.patchtools.wrappers.LazyMethodNode;
 
 import java.util.Arrays;
 
@@ -79,6 +80,7 @@ public class Disassembler {
         patch.append('\n');
 
         node.methods.forEach(m -> {
+            LazyMethodNode.load(m);
             patch.append("    ")
                 .append(".method ")
                 .append(m.name)
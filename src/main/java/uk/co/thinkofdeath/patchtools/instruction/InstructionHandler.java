@@ -31,6 +31,19 @@ import java.util.List;
 
 public interface InstructionHandler {
 
+    // Parses the parameters of the instruction once so that
+    // check doesn't have to every time it's called. The result
+    // is available through PatchInstruction.getCompiled
+    default Object compile(PatchInstruction instruction) {
+        return null;
+    }
+
+    // The opcodes an instruction matched by this could have,
+    // null if it isn't known (or isn't a real instruction)
+    default int[] getOpcodes(PatchInstruction instruction) {
+        return null;
+    }
+
     boolean check(ClassSet classSet, PatchScope scope, PatchInstruction instruction, MethodNode method, AbstractInsnNode insn);
 
     AbstractInsnNode create(ClassSet classSet, PatchScope scope, PatchInstruction instruction, MethodNode method);
@@ -28,6 +28,7 @@ import uk.co.thinkofdeath.patchtools.instruction.Instruction;
 import uk.co.thinkofdeath.patchtools.instruction.InstructionHandler;
 import uk.co.thinkofdeath.patchtools.matching.MatchClass;
 import uk.co.thinkofdeath.patchtools.matching.MatchGenerator;
+import uk.co.thinkofdeath.patchtools.patch.CompiledType;
 import uk.co.thinkofdeath.patchtools.patch.Ident;
 import uk.co.thinkofdeath.patchtools.patch.PatchClass;
 import uk.co.thinkofdeath.patchtools.patch.PatchInstruction;
@@ -39,6 +40,24 @@ import java.util.List;
 
 public class ArrayInstruction implements InstructionHandler {
 
+    @Override
+    public Object compile(PatchInstruction instruction) {
+        return new Compiled(instruction);
+    }
+
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        if (instruction.params[0].equals("*")) {
+            return new int[]{Opcodes.ANEWARRAY, Opcodes.NEWARRAY};
+        }
+        Type pType = Type.getType(instruction.params[0]);
+        // Only the node type is checked, not the opcode
+        if (pType.getSort() == Type.OBJECT || pType.getSort() == Type.ARRAY) {
+            return new int[]{Opcodes.NEW, Opcodes.ANEWARRAY, Opcodes.CHECKCAST, Opcodes.INSTANCEOF};
+        }
+        return new int[]{Opcodes.BIPUSH, Opcodes.SIPUSH, Opcodes.NEWARRAY};
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction patchInstruction, MethodNode method, AbstractInsnNode insn) {
         if (patchInstruction.params[0].equals("*")) {
@@ -46,49 +65,20 @@ public class ArrayInstruction implements InstructionHandler {
                 || (insn instanceof IntInsnNode && insn.getOpcode() == Opcodes.NEWARRAY);
         }
 
-        Type pType = Type.getType(patchInstruction.params[0]);
+        Compiled compiled = patchInstruction.getCompiled();
+        CompiledType pType = compiled.type;
 
         if (pType.getSort() == Type.OBJECT || pType.getSort() == Type.ARRAY) {
             if (!(insn instanceof TypeInsnNode)) {
                 return false;
             }
             String type = ((TypeInsnNode) insn).desc;
-            return PatchClass.checkTypes(classSet, scope, pType, Type.getObjectType(type));
+            return PatchClass.checkTypes(classSet, scope, pType, CompiledType.ofObject(type));
         } else {
             if (!(insn instanceof IntInsnNode)) {
                 return false;
             }
-            int type;
-            switch (pType.getSort()) {
-                case Type.BOOLEAN:
-                    type = 4;
-                    break;
-                case Type.CHAR:
-                    type = 5;
-                    break;
-                case Type.FLOAT:
-                    type = 6;
-                    break;
-                case Type.DOUBLE:
-                    type = 7;
-                    break;
-                case Type.BYTE:
-                    type = 8;
-                    break;
-                case Type.SHORT:
-                    type = 9;
-                    break;
-                case Type.INT:
-                    type = 10;
-                    break;
-                case Type.LONG:
-                    type = 11;
-                    break;
-                default:
-                    type = -1;
-                    break;
-            }
-            return ((IntInsnNode) insn).operand == type;
+            return ((IntInsnNode) insn).operand == compiled.arrayType;
         }
     }
 
@@ -220,4 +210,43 @@ public class ArrayInstruction implements InstructionHandler {
         }
         return Arrays.asList(new MatchClass(new Ident(type.getInternalName()).getName()));
     }
+
+    private static class Compiled {
+        private final CompiledType type;
+        // The operand of NEWARRAY for primitive types
+        private final int arrayType;
+
+        Compiled(PatchInstruction instruction) {
+            type = new CompiledType(Type.getType(instruction.params[0]));
+            switch (type.getSort()) {
+                case Type.BOOLEAN:
+                    arrayType = 4;
+                    break;
+                case Type.CHAR:
+                    arrayType = 5;
+                    break;
+                case Type.FLOAT:
+                    arrayType = 6;
+                    break;
+                case Type.DOUBLE:
+                    arrayType = 7;
+                    break;
+                case Type.BYTE:
+                    arrayType = 8;
+                    break;
+                case Type.SHORT:
+                    arrayType = 9;
+                    break;
+                case Type.INT:
+                    arrayType = 10;
+                    break;
+                case Type.LONG:
+                    arrayType = 11;
+                    break;
+                default:
+                    arrayType = -1;
+                    break;
+            }
+        }
+    }
 }
@@ -28,6 +28,7 @@ import uk.co.thinkofdeath.patchtools.instruction.InstructionHandler;
 import uk.co.thinkofdeath.patchtools.matching.MatchClass;
 import uk.co.thinkofdeath.patchtools.matching.MatchField;
 import uk.co.thinkofdeath.patchtools.matching.MatchGenerator;
+import uk.co.thinkofdeath.patchtools.patch.CompiledType;
 import uk.co.thinkofdeath.patchtools.patch.Ident;
 import uk.co.thinkofdeath.patchtools.patch.PatchClass;
 import uk.co.thinkofdeath.patchtools.patch.PatchInstruction;
@@ -48,14 +49,25 @@ public class FieldInstruction implements InstructionHandler {
         this.opcode = opcode;
     }
 
+    @Override
+    public Object compile(PatchInstruction instruction) {
+        return new Compiled(instruction);
+    }
+
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        return new int[]{opcode};
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction patchInstruction, MethodNode method, AbstractInsnNode insn) {
         if (!(insn instanceof FieldInsnNode) || insn.getOpcode() != opcode) {
             return false;
         }
         FieldInsnNode node = (FieldInsnNode) insn;
+        Compiled compiled = patchInstruction.getCompiled();
 
-        Ident cls = new Ident(patchInstruction.params[0]);
+        Ident cls = compiled.owner;
         String clsName = cls.getName();
         if (!clsName.equals("*")) {
             if (scope != null || !cls.isWeak()) {
@@ -74,7 +86,7 @@ public class FieldInstruction implements InstructionHandler {
             }
         }
 
-        Ident fieldIdent = new Ident(patchInstruction.params[1]);
+        Ident fieldIdent = compiled.name;
         String fieldName = fieldIdent.getName();
         if (!fieldName.equals("*")) {
             if (scope != null || !fieldIdent.isWeak()) {
@@ -95,10 +107,7 @@ public class FieldInstruction implements InstructionHandler {
             }
         }
 
-        Type patchDesc = Type.getType(patchInstruction.params[2]);
-        Type desc = Type.getType(node.desc);
-
-        return PatchClass.checkTypes(classSet, scope, patchDesc, desc);
+        return PatchClass.checkTypes(classSet, scope, compiled.desc, CompiledType.of(node.desc));
     }
 
     @Override
@@ -209,4 +218,16 @@ public class FieldInstruction implements InstructionHandler {
         }
         return ImmutableList.of();
     }
+
+    private static class Compiled {
+        private final Ident owner;
+        private final Ident name;
+        private final CompiledType desc;
+
+        Compiled(PatchInstruction instruction) {
+            owner = new Ident(instruction.params[0]);
+            name = new Ident(instruction.params[1]);
+            desc = new CompiledType(Type.getType(instruction.params[2]));
+        }
+    }
 }
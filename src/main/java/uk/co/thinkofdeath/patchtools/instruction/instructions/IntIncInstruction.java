@@ -16,6 +16,7 @@
 
 package uk.co.thinkofdeath.patchtools.instruction.instructions;
 
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.IincInsnNode;
 import org.objectweb.asm.tree.MethodNode;
@@ -27,31 +28,24 @@ import uk.co.thinkofdeath.patchtools.patch.ValidateException;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 
 public class IntIncInstruction implements InstructionHandler {
+    @Override
+    public Object compile(PatchInstruction instruction) {
+        return new Compiled(instruction);
+    }
+
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        return new int[]{Opcodes.IINC};
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction instruction, MethodNode method, AbstractInsnNode insn) {
         if (!(insn instanceof IincInsnNode)) {
             return false;
         }
-        int var = 0;
-        boolean any = false;
-        if (instruction.params[0].equals("*")) {
-            any = true;
-        } else {
-            var = Integer.parseInt(instruction.params[0]);
-        }
-        int other = ((IincInsnNode) insn).var;
-        if (any || var == other) {
-            int val = 0;
-            any = false;
-            if (instruction.params[1].equals("*")) {
-                any = true;
-            } else {
-                val = Integer.parseInt(instruction.params[1]);
-            }
-            other = ((IincInsnNode) insn).incr;
-            return !(!any && other != val);
-        }
-        return false;
+        Compiled compiled = instruction.getCompiled();
+        IincInsnNode node = (IincInsnNode) insn;
+        return compiled.var.matches(node.var) && compiled.incr.matches(node.incr);
     }
 
     @Override
@@ -89,4 +83,14 @@ public class IntIncInstruction implements InstructionHandler {
             throw new ValidateException("Invalid number " + e.getMessage());
         }
     }
+
+    private static class Compiled {
+        private final Utils.WildInt var;
+        private final Utils.WildInt incr;
+
+        Compiled(PatchInstruction instruction) {
+            var = new Utils.WildInt(instruction.params[0]);
+            incr = new Utils.WildInt(instruction.params[1]);
+        }
+    }
 }
@@ -17,6 +17,7 @@
 package uk.co.thinkofdeath.patchtools.instruction.instructions;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.MapMaker;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
@@ -28,6 +29,7 @@ import uk.co.thinkofdeath.patchtools.instruction.InstructionHandler;
 import uk.co.thinkofdeath.patchtools.matching.MatchClass;
 import uk.co.thinkofdeath.patchtools.matching.MatchGenerator;
 import uk.co.thinkofdeath.patchtools.matching.MatchMethod;
+import uk.co.thinkofdeath.patchtools.patch.CompiledType;
 import uk.co.thinkofdeath.patchtools.patch.Ident;
 import uk.co.thinkofdeath.patchtools.patch.PatchClass;
 import uk.co.thinkofdeath.patchtools.patch.PatchInstruction;
@@ -39,6 +41,7 @@ import uk.co.thinkofdeath.patchtools.wrappers.MethodWrapper;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentMap;
 
 public class InvokeInstruction implements InstructionHandler {
 
@@ -48,14 +51,25 @@ public class InvokeInstruction implements InstructionHandler {
         this.opcode = opcode;
     }
 
+    @Override
+    public Object compile(PatchInstruction instruction) {
+        return new Compiled(instruction);
+    }
+
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        return new int[]{opcode};
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction patchInstruction, MethodNode method, AbstractInsnNode insn) {
         if (!(insn instanceof MethodInsnNode) || insn.getOpcode() != opcode) {
             return false;
         }
         MethodInsnNode node = (MethodInsnNode) insn;
+        Compiled compiled = patchInstruction.getCompiled();
 
-        Ident cls = new Ident(patchInstruction.params[0]);
+        Ident cls = compiled.owner;
         String clsName = cls.getName();
         if (!clsName.equals("*")) {
             if (scope != null || !cls.isWeak()) {
@@ -74,7 +88,7 @@ public class InvokeInstruction implements InstructionHandler {
             }
         }
 
-        Ident methodIdent = new Ident(patchInstruction.params[1]);
+        Ident methodIdent = compiled.name;
         String methodName = methodIdent.getName();
         if (!methodName.equals("*")) {
             if (scope != null || !methodIdent.isWeak()) {
@@ -95,22 +109,17 @@ public class InvokeInstruction implements InstructionHandler {
             }
         }
 
-        Type patchDesc = Type.getMethodType(patchInstruction.params[2]);
-        Type desc = Type.getMethodType(node.desc);
-
-        if (desc.getArgumentTypes().length != patchDesc.getArgumentTypes().length) {
+        Desc desc = Desc.of(node.desc);
+        if (desc.args.length != compiled.args.length) {
             return false;
         }
 
-        for (int i = 0; i < patchDesc.getArgumentTypes().length; i++) {
-            Type pt = patchDesc.getArgumentTypes()[i];
-            Type t = desc.getArgumentTypes()[i];
-
-            if (!PatchClass.checkTypes(classSet, scope, pt, t)) {
+        for (int i = 0; i < compiled.args.length; i++) {
+            if (!PatchClass.checkTypes(classSet, scope, compiled.args[i], desc.args[i])) {
                 return false;
             }
         }
-        return PatchClass.checkTypes(classSet, scope, patchDesc.getReturnType(), desc.getReturnType());
+        return PatchClass.checkTypes(classSet, scope, compiled.returnType, desc.returnType);
     }
 
     @Override
@@ -248,4 +257,51 @@ public class InvokeInstruction implements InstructionHandler {
         }
         return ImmutableList.of();
     }
+
+    private static class Compiled {
+        private final Ident owner;
+        private final Ident name;
+        private final CompiledType[] args;
+        private final CompiledType returnType;
+
+        Compiled(PatchInstruction instruction) {
+            owner = new Ident(instruction.params[0]);
+            name = new Ident(instruction.params[1]);
+            Desc desc = new Desc(instruction.params[2]);
+            args = desc.args;
+            returnType = desc.returnType;
+        }
+    }
+
+    // check is called for every candidate instruction while
+    // matching so the descriptors it sees are only parsed once.
+    // Keyed by the descriptor instance so the entries go with
+    // the classes they came from
+    private static final ConcurrentMap<String, Desc> descCache = new MapMaker()
+        .weakKeys()
+        .makeMap();
+
+    private static class Desc {
+        private final CompiledType[] args;
+        private final CompiledType returnType;
+
+        private Desc(String desc) {
+            Type type = Type.getMethodType(desc);
+            Type[] types = type.getArgumentTypes();
+            args = new CompiledType[types.length];
+            for (int i = 0; i < types.length; i++) {
+                args[i] = new CompiledType(types[i]);
+            }
+            returnType = new CompiledType(type.getReturnType());
+        }
+
+        static Desc of(String desc) {
+            Desc parsed = descCache.get(desc);
+            if (parsed == null) {
+                parsed = new Desc(desc);
+                descCache.put(desc, parsed);
+            }
+            return parsed;
+        }
+    }
 }
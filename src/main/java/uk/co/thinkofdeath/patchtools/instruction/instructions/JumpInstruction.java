@@ -36,10 +36,20 @@ public class JumpInstruction implements InstructionHandler {
         this.opcode = opcode;
     }
 
+    @Override
+    public Object compile(PatchInstruction instruction) {
+        return new Ident(instruction.params[0]);
+    }
+
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        return new int[]{opcode};
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction instruction, MethodNode method, AbstractInsnNode insn) {
         return !(!(insn instanceof JumpInsnNode) || insn.getOpcode() != opcode)
-            && Utils.checkOrSetLabel(scope, method, instruction.params[0], ((JumpInsnNode) insn).label);
+            && Utils.checkOrSetLabel(scope, method, instruction.<Ident>getCompiled(), ((JumpInsnNode) insn).label);
     }
 
     @Override
@@ -28,11 +28,16 @@ import uk.co.thinkofdeath.patchtools.patch.ValidateException;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 
 public class LabelInstruction implements InstructionHandler {
+    @Override
+    public Object compile(PatchInstruction instruction) {
+        return instruction.params.length == 1 ? new Ident(instruction.params[0]) : null;
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction instruction, MethodNode method, AbstractInsnNode insn) {
         return insn instanceof LabelNode
             && instruction.params.length == 1
-            && Utils.checkOrSetLabel(scope, method, instruction.params[0], (LabelNode) insn);
+            && Utils.checkOrSetLabel(scope, method, instruction.<Ident>getCompiled(), (LabelNode) insn);
 
     }
 
@@ -16,6 +16,7 @@
 
 package uk.co.thinkofdeath.patchtools.instruction.instructions;
 
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.LookupSwitchInsnNode;
@@ -29,6 +30,16 @@ import uk.co.thinkofdeath.patchtools.patch.ValidateException;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 
 public class LookupSwitchInstruction implements InstructionHandler {
+    @Override
+    public Object compile(PatchInstruction instruction) {
+        return new Compiled(instruction);
+    }
+
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        return new int[]{Opcodes.LOOKUPSWITCH};
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction instruction, MethodNode method, AbstractInsnNode insn) {
         if (!(insn instanceof LookupSwitchInsnNode)) {
@@ -40,14 +51,12 @@ public class LookupSwitchInstruction implements InstructionHandler {
             return false;
         }
 
-        if (insnNode.labels.size() < instruction.meta.size()) return false;
+        Compiled compiled = instruction.getCompiled();
+        if (insnNode.labels.size() < compiled.keys.length) return false;
 
-        for (int i = 0; i < instruction.meta.size(); i++) {
-            String[] parts = instruction.meta.get(i).split(":");
-            String key = parts[0].trim();
-            String label = parts[1].trim();
-            if (!Utils.equalOrWild(key, insnNode.keys.get(i))
-                || !Utils.checkOrSetLabel(scope, method, label, insnNode.labels.get(i))) {
+        for (int i = 0; i < compiled.keys.length; i++) {
+            if (!compiled.keys[i].matches(insnNode.keys.get(i))
+                || !Utils.checkOrSetLabel(scope, method, compiled.labels[i], insnNode.labels.get(i))) {
                 return false;
             }
         }
@@ -130,4 +139,19 @@ public class LookupSwitchInstruction implements InstructionHandler {
             throw new ValidateException("Invalid number " + e.getMessage());
         }
     }
+
+    private static class Compiled {
+        private final Utils.WildInt[] keys;
+        private final String[] labels;
+
+        Compiled(PatchInstruction instruction) {
+            keys = new Utils.WildInt[instruction.meta.size()];
+            labels = new String[instruction.meta.size()];
+            for (int i = 0; i < keys.length; i++) {
+                String[] parts = instruction.meta.get(i).split(":");
+                keys[i] = new Utils.WildInt(parts[0].trim());
+                labels[i] = parts[1].trim();
+            }
+        }
+    }
 }
@@ -17,6 +17,7 @@
 package uk.co.thinkofdeath.patchtools.instruction.instructions;
 
 import com.google.common.collect.ImmutableList;
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.MethodNode;
@@ -26,6 +27,7 @@ import uk.co.thinkofdeath.patchtools.instruction.Instruction;
 import uk.co.thinkofdeath.patchtools.instruction.InstructionHandler;
 import uk.co.thinkofdeath.patchtools.matching.MatchClass;
 import uk.co.thinkofdeath.patchtools.matching.MatchGenerator;
+import uk.co.thinkofdeath.patchtools.patch.CompiledType;
 import uk.co.thinkofdeath.patchtools.patch.Ident;
 import uk.co.thinkofdeath.patchtools.patch.PatchClass;
 import uk.co.thinkofdeath.patchtools.patch.PatchInstruction;
@@ -37,6 +39,16 @@ import java.util.List;
 
 public class MultiArrayInstruction implements InstructionHandler {
 
+    @Override
+    public Object compile(PatchInstruction instruction) {
+        return new Compiled(instruction);
+    }
+
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        return new int[]{Opcodes.MULTIANEWARRAY};
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction patchInstruction, MethodNode method, AbstractInsnNode insn) {
         if (!(insn instanceof MultiANewArrayInsnNode)) {
@@ -44,15 +56,13 @@ public class MultiArrayInstruction implements InstructionHandler {
         }
 
         MultiANewArrayInsnNode insnNode = (MultiANewArrayInsnNode) insn;
-
-        Type pType = Type.getType(patchInstruction.params[0]);
-        int dims = patchInstruction.params[1].equals("*") ? -1 : Integer.parseInt(patchInstruction.params[1]);
+        Compiled compiled = patchInstruction.getCompiled();
 
         if (patchInstruction.params[0].equals("*")) {
-            return (dims == -1 || dims == insnNode.dims);
+            return compiled.dims.matches(insnNode.dims);
         }
-        return PatchClass.checkTypes(classSet, scope, pType, Type.getType(insnNode.desc))
-            && (dims == -1 || dims == insnNode.dims);
+        return PatchClass.checkTypes(classSet, scope, compiled.type, CompiledType.of(insnNode.desc))
+            && compiled.dims.matches(insnNode.dims);
     }
 
     @Override
@@ -108,4 +118,14 @@ public class MultiArrayInstruction implements InstructionHandler {
         }
         return Arrays.asList(new MatchClass(new Ident(type.getInternalName()).getName()));
     }
+
+    private static class Compiled {
+        private final CompiledType type;
+        private final Utils.WildInt dims;
+
+        Compiled(PatchInstruction instruction) {
+            type = new CompiledType(Type.getType(instruction.params[0]));
+            dims = new Utils.WildInt(instruction.params[1]);
+        }
+    }
 }
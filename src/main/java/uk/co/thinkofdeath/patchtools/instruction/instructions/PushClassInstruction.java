@@ -17,6 +17,7 @@
 package uk.co.thinkofdeath.patchtools.instruction.instructions;
 
 import com.google.common.collect.ImmutableList;
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.LdcInsnNode;
@@ -26,6 +27,7 @@ import uk.co.thinkofdeath.patchtools.instruction.Instruction;
 import uk.co.thinkofdeath.patchtools.instruction.InstructionHandler;
 import uk.co.thinkofdeath.patchtools.matching.MatchClass;
 import uk.co.thinkofdeath.patchtools.matching.MatchGenerator;
+import uk.co.thinkofdeath.patchtools.patch.CompiledType;
 import uk.co.thinkofdeath.patchtools.patch.Ident;
 import uk.co.thinkofdeath.patchtools.patch.PatchClass;
 import uk.co.thinkofdeath.patchtools.patch.PatchInstruction;
@@ -36,6 +38,16 @@ import java.util.Arrays;
 import java.util.List;
 
 public class PushClassInstruction implements InstructionHandler {
+    @Override
+    public Object compile(PatchInstruction instruction) {
+        return new CompiledType(Type.getObjectType(instruction.params[0]));
+    }
+
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        return new int[]{Opcodes.LDC};
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction patchInstruction, MethodNode method, AbstractInsnNode insn) {
         if (!(insn instanceof LdcInsnNode)) {
@@ -49,9 +61,8 @@ public class PushClassInstruction implements InstructionHandler {
                 return true;
             }
 
-            Type type = (Type) ldcInsnNode.cst;
-
-            return PatchClass.checkTypes(classSet, scope, Type.getObjectType(className), type);
+            return PatchClass.checkTypes(classSet, scope, patchInstruction.getCompiled(),
+                CompiledType.of((Type) ldcInsnNode.cst));
         } else {
             return false;
         }
@@ -29,28 +29,31 @@ import uk.co.thinkofdeath.patchtools.patch.ValidateException;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 
 public class PushDoubleInstruction implements InstructionHandler {
+    @Override
+    public Object compile(PatchInstruction instruction) {
+        return new Compiled(instruction.params[0]);
+    }
+
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        return new int[]{Opcodes.LDC, Opcodes.DCONST_0, Opcodes.DCONST_1};
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction instruction, MethodNode method, AbstractInsnNode insn) {
         if (instruction.params.length != 1) {
             return false;
         }
-        double val = 0;
-        boolean any = false;
-        if (instruction.params[0].equals("*")) {
-            any = true;
-        } else {
-            val = Double.parseDouble(instruction.params[0]);
-        }
+        Compiled val = instruction.getCompiled();
 
         if (insn instanceof LdcInsnNode) {
             LdcInsnNode ldcInsnNode = (LdcInsnNode) insn;
             if (ldcInsnNode.cst instanceof Double) {
-                return !(!any && (double) ldcInsnNode.cst != val);
+                return val.matches((double) ldcInsnNode.cst);
             }
         } else if (insn instanceof InsnNode) {
             if (insn.getOpcode() >= Opcodes.DCONST_0 && insn.getOpcode() <= Opcodes.DCONST_1) {
-                double other = insn.getOpcode() - Opcodes.DCONST_0;
-                return !(!any && other != val);
+                return val.matches(insn.getOpcode() - Opcodes.DCONST_0);
             }
         }
         return false;
@@ -101,4 +104,18 @@ public class PushDoubleInstruction implements InstructionHandler {
             throw new ValidateException("Invalid number " + e.getMessage());
         }
     }
+
+    private static class Compiled {
+        private final boolean any;
+        private final double val;
+
+        Compiled(String param) {
+            any = param.equals("*");
+            val = any ? 0 : Double.parseDouble(param);
+        }
+
+        boolean matches(double other) {
+            return any || other == val;
+        }
+    }
 }
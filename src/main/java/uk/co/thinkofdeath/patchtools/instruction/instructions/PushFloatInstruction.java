@@ -29,28 +29,31 @@ import uk.co.thinkofdeath.patchtools.patch.ValidateException;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 
 public class PushFloatInstruction implements InstructionHandler {
+    @Override
+    public Object compile(PatchInstruction instruction) {
+        return new Compiled(instruction.params[0]);
+    }
+
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        return new int[]{Opcodes.LDC, Opcodes.FCONST_0, Opcodes.FCONST_1, Opcodes.FCONST_2};
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction instruction, MethodNode method, AbstractInsnNode insn) {
         if (instruction.params.length != 1) {
             return false;
         }
-        float val = 0;
-        boolean any = false;
-        if (instruction.params[0].equals("*")) {
-            any = true;
-        } else {
-            val = Float.parseFloat(instruction.params[0]);
-        }
+        Compiled val = instruction.getCompiled();
 
         if (insn instanceof LdcInsnNode) {
             LdcInsnNode ldcInsnNode = (LdcInsnNode) insn;
             if (ldcInsnNode.cst instanceof Float) {
-                return !(!any && (float) ldcInsnNode.cst != val);
+                return val.matches((float) ldcInsnNode.cst);
             }
         } else if (insn instanceof InsnNode) {
             if (insn.getOpcode() >= Opcodes.FCONST_0 && insn.getOpcode() <= Opcodes.FCONST_2) {
-                float other = insn.getOpcode() - Opcodes.FCONST_0;
-                return !(!any && other != val);
+                return val.matches(insn.getOpcode() - Opcodes.FCONST_0);
             }
         }
         return false;
@@ -101,4 +104,18 @@ public class PushFloatInstruction implements InstructionHandler {
             throw new ValidateException("Invalid number " + e.getMessage());
         }
     }
+
+    private static class Compiled {
+        private final boolean any;
+        private final float val;
+
+        Compiled(String param) {
+            any = param.equals("*");
+            val = any ? 0 : Float.parseFloat(param);
+        }
+
+        boolean matches(float other) {
+            return any || other == val;
+        }
+    }
 }
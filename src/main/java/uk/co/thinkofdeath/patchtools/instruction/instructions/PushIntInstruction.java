@@ -26,33 +26,39 @@ import uk.co.thinkofdeath.patchtools.patch.ValidateException;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 
 public class PushIntInstruction implements InstructionHandler {
+    @Override
+    public Object compile(PatchInstruction instruction) {
+        return new Utils.WildInt(instruction.params[0]);
+    }
+
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        return new int[]{
+            Opcodes.LDC, Opcodes.BIPUSH, Opcodes.SIPUSH,
+            Opcodes.ICONST_M1, Opcodes.ICONST_0, Opcodes.ICONST_1, Opcodes.ICONST_2,
+            Opcodes.ICONST_3, Opcodes.ICONST_4, Opcodes.ICONST_5
+        };
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction instruction, MethodNode method, AbstractInsnNode insn) {
         if (instruction.params.length != 1) {
             return false;
         }
-        int val = 0;
-        boolean any = false;
-        if (instruction.params[0].equals("*")) {
-            any = true;
-        } else {
-            val = Integer.parseInt(instruction.params[0]);
-        }
+        Utils.WildInt val = instruction.getCompiled();
 
         if (insn instanceof LdcInsnNode) {
             LdcInsnNode ldcInsnNode = (LdcInsnNode) insn;
             if (ldcInsnNode.cst instanceof Integer) {
-                return !(!any && (int) ldcInsnNode.cst != val);
+                return val.matches((int) ldcInsnNode.cst);
             }
         } else if (insn instanceof InsnNode) {
             if (insn.getOpcode() >= Opcodes.ICONST_M1 && insn.getOpcode() <= Opcodes.ICONST_5) {
-                int other = insn.getOpcode() - Opcodes.ICONST_M1 - 1;
-                return !(!any && other != val);
+                return val.matches(insn.getOpcode() - Opcodes.ICONST_M1 - 1);
             }
         } else if (insn instanceof IntInsnNode) {
             if (insn.getOpcode() == Opcodes.BIPUSH || insn.getOpcode() == Opcodes.SIPUSH) {
-                int other = ((IntInsnNode) insn).operand;
-                return !(!any && other != val);
+                return val.matches(((IntInsnNode) insn).operand);
             }
         }
         return false;
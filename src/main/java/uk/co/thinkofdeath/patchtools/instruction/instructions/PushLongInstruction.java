@@ -29,28 +29,31 @@ import uk.co.thinkofdeath.patchtools.patch.ValidateException;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 
 public class PushLongInstruction implements InstructionHandler {
+    @Override
+    public Object compile(PatchInstruction instruction) {
+        return new Compiled(instruction.params[0]);
+    }
+
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        return new int[]{Opcodes.LDC, Opcodes.LCONST_0, Opcodes.LCONST_1};
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction instruction, MethodNode method, AbstractInsnNode insn) {
         if (instruction.params.length != 1) {
             return false;
         }
-        long val = 0;
-        boolean any = false;
-        if (instruction.params[0].equals("*")) {
-            any = true;
-        } else {
-            val = Long.parseLong(instruction.params[0]);
-        }
+        Compiled val = instruction.getCompiled();
 
         if (insn instanceof LdcInsnNode) {
             LdcInsnNode ldcInsnNode = (LdcInsnNode) insn;
             if (ldcInsnNode.cst instanceof Long) {
-                return !(!any && (long) ldcInsnNode.cst != val);
+                return val.matches((long) ldcInsnNode.cst);
             }
         } else if (insn instanceof InsnNode) {
             if (insn.getOpcode() >= Opcodes.LCONST_0 && insn.getOpcode() <= Opcodes.LCONST_1) {
-                long other = insn.getOpcode() - Opcodes.LCONST_0;
-                return !(!any && other != val);
+                return val.matches(insn.getOpcode() - Opcodes.LCONST_0);
             }
         }
         return false;
@@ -101,4 +104,18 @@ public class PushLongInstruction implements InstructionHandler {
             throw new ValidateException("Invalid number " + e.getMessage());
         }
     }
+
+    private static class Compiled {
+        private final boolean any;
+        private final long val;
+
+        Compiled(String param) {
+            any = param.equals("*");
+            val = any ? 0 : Long.parseLong(param);
+        }
+
+        boolean matches(long other) {
+            return any || other == val;
+        }
+    }
 }
@@ -17,6 +17,7 @@
 package uk.co.thinkofdeath.patchtools.instruction.instructions;
 
 import com.google.common.base.Joiner;
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.MethodNode;
@@ -28,13 +29,23 @@ import uk.co.thinkofdeath.patchtools.patch.ValidateException;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 
 public class PushStringInstruction implements InstructionHandler {
+    @Override
+    public Object compile(PatchInstruction instruction) {
+        return Joiner.on(' ').join(instruction.params);
+    }
+
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        return new int[]{Opcodes.LDC};
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction patchInstruction, MethodNode method, AbstractInsnNode insn) {
         if (!(insn instanceof LdcInsnNode)) {
             return false;
         }
         LdcInsnNode ldcInsnNode = (LdcInsnNode) insn;
-        String cst = Joiner.on(' ').join(patchInstruction.params);
+        String cst = patchInstruction.getCompiled();
 
         if (ldcInsnNode.cst instanceof String) {
             if (cst.equals("*")) {
@@ -44,8 +55,9 @@ public class PushStringInstruction implements InstructionHandler {
             if (!cst.startsWith("\"") || !cst.endsWith("\"")) {
                 return false;
             }
-            cst = cst.substring(1, cst.length() - 1);
-            if (!ldcInsnNode.cst.equals(cst)) {
+            String value = (String) ldcInsnNode.cst;
+            // Compares against the inside of the quotes
+            if (value.length() != cst.length() - 2 || !cst.regionMatches(1, value, 0, value.length())) {
                 return false;
             }
         } else {
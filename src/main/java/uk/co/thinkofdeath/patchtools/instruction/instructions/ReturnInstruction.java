@@ -30,6 +30,14 @@ import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 
 public class ReturnInstruction implements InstructionHandler {
 
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        return new int[]{
+            Opcodes.IRETURN, Opcodes.LRETURN, Opcodes.FRETURN,
+            Opcodes.DRETURN, Opcodes.ARETURN, Opcodes.RETURN
+        };
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction instruction, MethodNode method, AbstractInsnNode insn) {
         if (!(insn instanceof InsnNode)) {
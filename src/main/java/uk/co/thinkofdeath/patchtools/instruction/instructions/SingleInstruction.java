@@ -34,6 +34,11 @@ public class SingleInstruction implements InstructionHandler {
         this.opcode = opcode;
     }
 
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        return new int[]{opcode};
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction instruction, MethodNode method, AbstractInsnNode insn) {
         return insn instanceof InsnNode && insn.getOpcode() == opcode;
@@ -16,6 +16,7 @@
 
 package uk.co.thinkofdeath.patchtools.instruction.instructions;
 
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.MethodNode;
@@ -29,15 +30,26 @@ import uk.co.thinkofdeath.patchtools.patch.ValidateException;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 
 public class TableSwitchInstruction implements InstructionHandler {
+    @Override
+    public Object compile(PatchInstruction instruction) {
+        return new Compiled(instruction);
+    }
+
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        return new int[]{Opcodes.TABLESWITCH};
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction instruction, MethodNode method, AbstractInsnNode insn) {
         if (!(insn instanceof TableSwitchInsnNode)) {
             return false;
         }
         TableSwitchInsnNode insnNode = (TableSwitchInsnNode) insn;
+        Compiled compiled = instruction.getCompiled();
 
-        if (!Utils.equalOrWild(instruction.params[0], insnNode.min)
-            || !Utils.equalOrWild(instruction.params[1], insnNode.max)
+        if (!compiled.min.matches(insnNode.min)
+            || !compiled.max.matches(insnNode.max)
             || !Utils.checkOrSetLabel(scope, method, instruction.params[2], insnNode.dflt)) {
             return false;
         }
@@ -122,4 +134,14 @@ public class TableSwitchInstruction implements InstructionHandler {
             throw new ValidateException("Non-weak label");
         }
     }
+
+    private static class Compiled {
+        private final Utils.WildInt min;
+        private final Utils.WildInt max;
+
+        Compiled(PatchInstruction instruction) {
+            min = new Utils.WildInt(instruction.params[0]);
+            max = new Utils.WildInt(instruction.params[1]);
+        }
+    }
 }
@@ -18,7 +18,6 @@ package uk.co.thinkofdeath.patchtools.instruction.instructions;
 
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
-import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.TryCatchBlockNode;
 import uk.co.thinkofdeath.patchtools.PatchScope;
@@ -30,8 +29,6 @@ import uk.co.thinkofdeath.patchtools.patch.PatchInstruction;
 import uk.co.thinkofdeath.patchtools.patch.ValidateException;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 
-import java.util.Map;
-
 public class TryCatchInstruction implements InstructionHandler {
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction instruction, MethodNode method, AbstractInsnNode insn) {
@@ -71,13 +68,13 @@ public class TryCatchInstruction implements InstructionHandler {
         return null;
     }
 
-    public static void create(ClassSet classSet, PatchScope scope, PatchInstruction instruction, MethodNode method, Map<LabelNode, LabelNode> labels) {
+    public static void createBlock(ClassSet classSet, PatchScope scope, PatchInstruction instruction, MethodNode method) {
         StringBuilder type = new StringBuilder();
         PatchClass.updatedTypeString(classSet, scope, type, Type.getType("L" + instruction.params[3] + ";"));
         TryCatchBlockNode tryNode = new TryCatchBlockNode(
-            labels.get(Utils.getLabel(scope, method, instruction.params[0])),
-            labels.get(Utils.getLabel(scope, method, instruction.params[1])),
-            labels.get(Utils.getLabel(scope, method, instruction.params[2])),
+            Utils.getLabel(scope, method, instruction.params[0]),
+            Utils.getLabel(scope, method, instruction.params[1]),
+            Utils.getLabel(scope, method, instruction.params[2]),
             Type.getType(type.toString()).getInternalName()
         );
         method.tryCatchBlocks.add(tryNode);
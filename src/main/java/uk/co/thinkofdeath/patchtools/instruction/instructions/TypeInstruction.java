@@ -27,6 +27,7 @@ import uk.co.thinkofdeath.patchtools.instruction.Instruction;
 import uk.co.thinkofdeath.patchtools.instruction.InstructionHandler;
 import uk.co.thinkofdeath.patchtools.matching.MatchClass;
 import uk.co.thinkofdeath.patchtools.matching.MatchGenerator;
+import uk.co.thinkofdeath.patchtools.patch.CompiledType;
 import uk.co.thinkofdeath.patchtools.patch.Ident;
 import uk.co.thinkofdeath.patchtools.patch.PatchClass;
 import uk.co.thinkofdeath.patchtools.patch.PatchInstruction;
@@ -44,6 +45,16 @@ public class TypeInstruction implements InstructionHandler {
         this.opcode = opcode;
     }
 
+    @Override
+    public Object compile(PatchInstruction instruction) {
+        return new CompiledType(Type.getObjectType(instruction.params[0]));
+    }
+
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        return new int[]{opcode};
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction patchInstruction, MethodNode method, AbstractInsnNode insn) {
         if (!(insn instanceof TypeInsnNode) || insn.getOpcode() != opcode) {
@@ -56,8 +67,8 @@ public class TypeInstruction implements InstructionHandler {
             return true;
         }
 
-        String type = typeInsnNode.desc;
-        return PatchClass.checkTypes(classSet, scope, Type.getObjectType(className), Type.getObjectType(type));
+        return PatchClass.checkTypes(classSet, scope, patchInstruction.getCompiled(),
+            CompiledType.ofObject(typeInsnNode.desc));
     }
 
     @Override
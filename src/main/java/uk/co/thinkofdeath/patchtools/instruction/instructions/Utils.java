@@ -45,7 +45,10 @@ public class Utils {
     }
 
     public static boolean checkOrSetLabel(PatchScope scope, MethodNode method, String labelName, LabelNode label) {
-        Ident ident = new Ident(labelName);
+        return checkOrSetLabel(scope, method, new Ident(labelName), label);
+    }
+
+    public static boolean checkOrSetLabel(PatchScope scope, MethodNode method, Ident ident, LabelNode label) {
         if (!ident.isWeak()) {
             if (!ident.getName().equals("*")) {
                 return false;
@@ -76,8 +79,19 @@ public class Utils {
         return label;
     }
 
-    public static boolean equalOrWild(String val, int other) {
-        return val.equals("*") || Integer.parseInt(val) == other;
+    // A parsed int parameter which may be a wild-card
+    public static class WildInt {
+        private final boolean wild;
+        private final int value;
+
+        public WildInt(String val) {
+            wild = val.equals("*");
+            value = wild ? 0 : Integer.parseInt(val);
+        }
+
+        public boolean matches(int other) {
+            return wild || value == other;
+        }
     }
 
     private static Map<MethodNode, Map<Label, String>> labels = new WeakHashMap<>();
@@ -35,22 +35,24 @@ public class VarInstruction implements InstructionHandler {
         this.opcode = opcode;
     }
 
+    @Override
+    public Object compile(PatchInstruction instruction) {
+        return new Utils.WildInt(instruction.params[0]);
+    }
+
+    @Override
+    public int[] getOpcodes(PatchInstruction instruction) {
+        return new int[]{opcode};
+    }
+
     @Override
     public boolean check(ClassSet classSet, PatchScope scope, PatchInstruction instruction, MethodNode method, AbstractInsnNode insn) {
         if (!(insn instanceof VarInsnNode)
             || insn.getOpcode() != opcode) {
             return false;
         }
-        int index = 0;
-        boolean any = false;
-        if (instruction.params[0].equals("*")) {
-            any = true;
-        } else {
-            index = Integer.parseInt(instruction.params[0]);
-        }
-
-        int other = ((VarInsnNode) insn).var;
-        return !(!any && other != index);
+        Utils.WildInt index = instruction.getCompiled();
+        return index.matches(((VarInsnNode) insn).var);
     }
 
     @Override
@@ -59,6 +59,11 @@ public class StateLogger {
         return () -> "Adding " + node.name + " as a possible match for " + clazz.getName();
     }
 
+    public void append(StateLogger other) {
+        if (!isActive) return;
+        writer.write(other.writer.toString());
+    }
+
     public PrintWriter getPrintWriter() {
         return new PrintWriter(writer);
     }
@@ -22,10 +22,8 @@ import uk.co.thinkofdeath.patchtools.wrappers.ClassPathWrapper;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
-import java.util.zip.ZipFile;
+import java.util.concurrent.ForkJoinPool;
 
 public class Disassemble {
 
@@ -50,18 +48,9 @@ public class Disassemble {
         System.out.println("Loading classes");
 
         ClassSet classSet = new ClassSet(new ClassPathWrapper(deps));
+        classSet.setLazy(true);
 
-        try (ZipFile zipFile = new ZipFile(inJar)) {
-            zipFile.stream()
-                .filter(c -> c.getName().endsWith(".class"))
-                .forEach(c -> {
-                    try {
-                        classSet.add(zipFile.getInputStream(c));
-                    } catch (IOException e) {
-                        throw new UncheckedIOException(e);
-                    }
-                });
-        }
+        new JarLoader(ForkJoinPool.commonPool()).load(inJar, classSet);
         classSet.simplify();
 
         System.out.println("Disassembling classes");
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.patchtools.main;
+
+import com.google.common.io.ByteStreams;
+import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Loads the classes of a jar into a class set. Entries are
+// inflated and parsed on the pool, the class set allows
+// concurrent adds. Other entries aren't read, JarWriter copies
+// them from the jar
+public class JarLoader {
+
+    private final ForkJoinPool pool;
+
+    public JarLoader(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public void load(File jar, ClassSet classSet) throws IOException {
+        AtomicLong bytes = new AtomicLong();
+        long start = System.nanoTime();
+        int count;
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            List<? extends ZipEntry> entries = zipFile.stream()
+                .filter(e -> !e.isDirectory() && e.getName().endsWith(".class"))
+                .collect(Collectors.toList());
+            count = entries.size();
+            // Running the parallel stream from inside the pool
+            // makes it use the pool's threads
+            pool.submit(() -> entries.parallelStream().forEach(e -> {
+                byte[] data;
+                try (InputStream in = zipFile.getInputStream(e)) {
+                    data = ByteStreams.toByteArray(in);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                bytes.addAndGet(data.length);
+                classSet.add(data);
+            })).join();
+        }
+        long time = System.nanoTime() - start;
+        double seconds = time / 1e9;
+        System.out.printf("Loaded %d classes (%.1f MB) in %.2fs, %.1f MB/s%n",
+            count, bytes.get() / 1e6, seconds, bytes.get() / 1e6 / seconds);
+    }
+}
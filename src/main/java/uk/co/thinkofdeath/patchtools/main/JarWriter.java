@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.patchtools.main;
+
+import uk.co.thinkofdeath.patchtools.PatchScope;
+import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+// Writes a class set out to a jar based on the jar it was loaded
+// from. Classes that changed are written and compressed on the
+// pool while the calling thread adds them to the jar in order,
+// only a few per thread are held in memory at once. Everything
+// else is copied from the source jar as it is
+public class JarWriter {
+
+    private final ForkJoinPool pool;
+    private boolean stored;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    public JarWriter(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Stored entries aren't compressed
+    public void setStored(boolean stored) {
+        this.stored = stored;
+    }
+
+    // The compression level for deflated entries, 0-9
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    // Classes are renamed using the scope when it isn't null.
+    // Entries under META-INF are dropped
+    public void write(File jar, File source, ClassSet classSet, PatchScope scope) throws IOException {
+        long start = System.nanoTime();
+        long bytes = 0;
+        int count = 0;
+        int copied = 0;
+        int window = pool.getParallelism() * 4;
+        Set<String> classes = new LinkedHashSet<>(Arrays.asList(classSet.classes(true)));
+        Deque<CompletableFuture<Output>> pending = new ArrayDeque<>();
+        try (RawZipFile in = new RawZipFile(source);
+             ZipWriter out = new ZipWriter(jar)) {
+            for (RawZipFile.Entry e : in.getEntries()) {
+                String name = e.getName();
+                if (e.isDirectory() || name.startsWith("META-INF")) {
+                    continue;
+                }
+                if (name.endsWith(".class")) {
+                    String cls = name.substring(0, name.length() - ".class".length());
+                    // Removed by the patch
+                    if (!classes.remove(cls)) continue;
+                    if (scope != null || classSet.isDirty(classSet.getClassWrapper(cls))) {
+                        pending.add(CompletableFuture.supplyAsync(() -> writeClass(classSet, scope, cls), pool));
+                    } else {
+                        pending.add(CompletableFuture.completedFuture(copy(in, e)));
+                        copied++;
+                    }
+                } else {
+                    pending.add(CompletableFuture.completedFuture(copy(in, e)));
+                    copied++;
+                }
+                if (pending.size() >= window) {
+                    bytes += pending.poll().join().write(out);
+                    count++;
+                }
+            }
+            // Added by the patch
+            for (String cls : classes) {
+                pending.add(CompletableFuture.supplyAsync(() -> writeClass(classSet, scope, cls), pool));
+            }
+            while (!pending.isEmpty()) {
+                bytes += pending.poll().join().write(out);
+                count++;
+            }
+        }
+        long time = System.nanoTime() - start;
+        double seconds = time / 1e9;
+        System.out.printf("Wrote %d entries (%d copied, %.1f MB) in %.2fs, %.1f MB/s%n",
+            count, copied, bytes / 1e6, seconds, bytes / 1e6 / seconds);
+    }
+
+    private Output writeClass(ClassSet classSet, PatchScope scope, String cls) {
+        ZipWriter.Entry entry;
+        if (scope == null) {
+            entry = new ZipWriter.Entry(cls + ".class", classSet.getClass(cls), stored, level);
+        } else {
+            String mcls = scope.getClass(classSet.getClassWrapper(cls));
+            if (mcls == null) mcls = cls;
+            entry = new ZipWriter.Entry(mcls + ".class", classSet.getClass(cls, scope), stored, level);
+        }
+        return out -> {
+            out.write(entry);
+            return entry.getSize();
+        };
+    }
+
+    private static Output copy(RawZipFile in, RawZipFile.Entry entry) {
+        return out -> {
+            out.copy(in, entry);
+            return entry.getSize();
+        };
+    }
+
+    private interface Output {
+        // Returns the uncompressed size of what was written
+        long write(ZipWriter out) throws IOException;
+    }
+}
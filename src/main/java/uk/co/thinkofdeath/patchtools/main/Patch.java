@@ -16,18 +16,15 @@
 
 package uk.co.thinkofdeath.patchtools.main;
 
-import com.google.common.io.ByteStreams;
 import uk.co.thinkofdeath.patchtools.PatchScope;
 import uk.co.thinkofdeath.patchtools.Patcher;
+import uk.co.thinkofdeath.patchtools.matching.MatchCache;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassPathWrapper;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
 
 public class Patch {
 
@@ -60,58 +57,27 @@ public class Patch {
         System.out.println("Loading classes");
 
         ClassSet classSet = new ClassSet(new ClassPathWrapper(deps));
-        HashMap<String, byte[]> resources = new HashMap<>();
-
-        try (ZipFile zipFile = new ZipFile(inJar)) {
-            zipFile.stream()
-                .forEach(c -> {
-                    try (InputStream in = zipFile.getInputStream(c)) {
-                        if (c.getName().endsWith(".class")) {
-                            classSet.add(in, false);
-                        } else {
-
-                            resources.put(c.getName(), ByteStreams.toByteArray(in));
-                        }
-                    } catch (IOException e) {
-                        throw new UncheckedIOException(e);
-                    }
-                });
-        }
+        classSet.setLazy(true);
+        new JarLoader(ForkJoinPool.commonPool()).load(inJar, classSet);
         classSet.simplify();
 
         System.out.println("Applying patch");
 
         long start = System.nanoTime();
-        Patcher patcher = new Patcher(classSet);
+        Patcher patcher = new Patcher(classSet, ForkJoinPool.commonPool());
+        String cacheDir = System.getProperty("patchCache");
+        if (cacheDir != null) {
+            patcher.setMatchCache(new MatchCache(new File(cacheDir)));
+        }
         PatchScope scope = patcher.apply(new FileInputStream(inPatch));
         System.out.println("Time: " + (System.nanoTime() - start));
 
         System.out.println(scope);
 
-        try (ZipOutputStream zop = new ZipOutputStream(new FileOutputStream(outJar))) {
-            for (String cls : classSet.classes(true)) {
-                System.out.println("Saving " + cls);
-                if (!map) {
-                    ZipEntry zipEntry = new ZipEntry(cls + ".class");
-                    zop.putNextEntry(zipEntry);
-                    zop.write(classSet.getClass(cls));
-                } else {
-                    String mcls = scope.getClass(classSet.getClassWrapper(cls));
-                    if (mcls == null) mcls = cls;
-                    ZipEntry zipEntry = new ZipEntry(mcls + ".class");
-                    zop.putNextEntry(zipEntry);
-                    zop.write(classSet.getClass(cls, scope));
-                }
-            }
-            for (Map.Entry<String, byte[]> e : resources.entrySet()) {
-                if (e.getKey().startsWith("META-INF")) {
-                    continue;
-                }
-                ZipEntry zipEntry = new ZipEntry(e.getKey());
-                zop.putNextEntry(zipEntry);
-                zop.write(e.getValue());
-            }
-        }
+        JarWriter writer = new JarWriter(ForkJoinPool.commonPool());
+        writer.setStored(Boolean.getBoolean("zipStored"));
+        writer.setLevel(Integer.getInteger("zipLevel", Deflater.DEFAULT_COMPRESSION));
+        writer.write(outJar, inJar, classSet, map ? scope : null);
         System.out.println("Done");
     }
 }
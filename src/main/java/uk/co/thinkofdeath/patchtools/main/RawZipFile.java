@@ -0,0 +1,192 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.patchtools.main;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipException;
+
+// Reads the entries of a zip from its central directory and
+// gives access to their data as it is stored in the file, so
+// they can be copied into another zip without being inflated
+public class RawZipFile implements Closeable {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int END_SIZE = 22;
+    // Names are in cp437 unless this is set
+    private static final int UTF8_FLAG = 0x0800;
+    private static final Charset CP437 = Charset.forName("IBM437");
+
+    private final FileChannel channel;
+    private final List<Entry> entries;
+
+    public RawZipFile(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            entries = readEntries();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private List<Entry> readEntries() throws IOException {
+        // The end record is followed by a comment of up to 64k
+        long size = channel.size();
+        int tailSize = (int) Math.min(size, END_SIZE + 0xFFFF);
+        ByteBuffer tail = read(size - tailSize, tailSize);
+        int end = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_HEADER) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1) {
+            throw new ZipException("Missing end of central directory");
+        }
+        int count = tail.getShort(end + 10) & 0xFFFF;
+        long centralSize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+        long centralOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || centralOffset == 0xFFFFFFFFL) {
+            throw new ZipException("Zip64 isn't supported");
+        }
+
+        ByteBuffer central = read(centralOffset, (int) centralSize);
+        List<Entry> entries = new ArrayList<>(count);
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (central.getInt(pos) != CENTRAL_HEADER) {
+                throw new ZipException("Bad central directory entry");
+            }
+            Entry entry = new Entry();
+            entry.flags = central.getShort(pos + 8) & 0xFFFF;
+            entry.method = central.getShort(pos + 10) & 0xFFFF;
+            entry.dosTime = central.getInt(pos + 12);
+            entry.crc = central.getInt(pos + 16) & 0xFFFFFFFFL;
+            entry.compressedSize = central.getInt(pos + 20) & 0xFFFFFFFFL;
+            entry.size = central.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLength = central.getShort(pos + 28) & 0xFFFF;
+            int extraLength = central.getShort(pos + 30) & 0xFFFF;
+            int commentLength = central.getShort(pos + 32) & 0xFFFF;
+            entry.offset = central.getInt(pos + 42) & 0xFFFFFFFFL;
+            byte[] name = new byte[nameLength];
+            central.position(pos + 46);
+            central.get(name);
+            entry.name = new String(name, (entry.flags & UTF8_FLAG) != 0 ? StandardCharsets.UTF_8 : CP437);
+            entries.add(entry);
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    // Copies the entry's data, still compressed, to the target
+    public void transferTo(Entry entry, WritableByteChannel target) throws IOException {
+        ByteBuffer header = read(entry.offset, 30);
+        if (header.getInt(0) != LOCAL_HEADER) {
+            throw new ZipException("Bad local header for " + entry.name);
+        }
+        long position = entry.offset + 30
+            + (header.getShort(26) & 0xFFFF)
+            + (header.getShort(28) & 0xFFFF);
+        long remaining = entry.compressedSize;
+        while (remaining > 0) {
+            long count = channel.transferTo(position, remaining, target);
+            if (count <= 0) {
+                throw new ZipException("Unexpected end of file");
+            }
+            position += count;
+            remaining -= count;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static class Entry {
+        private String name;
+        private int flags;
+        private int method;
+        private int dosTime;
+        private long crc;
+        private long compressedSize;
+        private long size;
+        private long offset;
+
+        public String getName() {
+            return name;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public int getDosTime() {
+            return dosTime;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.patchtools.main;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+// A minimal zip writer which, unlike ZipOutputStream, can copy
+// entries out of another zip without inflating and deflating
+// them. Zip64 isn't supported
+public class ZipWriter implements Closeable {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int VERSION = 20;
+    // Names are always written as utf-8, copied entries included
+    // since RawZipFile has already decoded theirs
+    private static final int UTF8_FLAG = 0x0800;
+    // Set when the sizes follow the data, never done here
+    private static final int DESCRIPTOR_FLAG = 0x0008;
+
+    private final FileOutputStream file;
+    private final OutputStream out;
+    private final ByteArrayOutputStream central = new ByteArrayOutputStream();
+    private long position;
+    private int count;
+
+    public ZipWriter(File file) throws IOException {
+        this.file = new FileOutputStream(file);
+        out = new BufferedOutputStream(this.file, 64 * 1024);
+    }
+
+    public void write(Entry entry) throws IOException {
+        writeHeader(entry.name, UTF8_FLAG, entry.method, entry.dosTime, entry.crc, entry.data.length, entry.size);
+        out.write(entry.data);
+        position += entry.data.length;
+    }
+
+    public void copy(RawZipFile source, RawZipFile.Entry entry) throws IOException {
+        writeHeader(entry.getName(), (entry.getFlags() & ~DESCRIPTOR_FLAG) | UTF8_FLAG, entry.getMethod(),
+            entry.getDosTime(), entry.getCrc(), entry.getCompressedSize(), entry.getSize());
+        // Goes straight from file to file
+        out.flush();
+        source.transferTo(entry, file.getChannel());
+        position += entry.getCompressedSize();
+    }
+
+    private void writeHeader(String name, int flags, int method, int dosTime,
+                             long crc, long compressedSize, long size) throws IOException {
+        if (position > 0xFFFFFFFFL || compressedSize >= 0xFFFFFFFFL || size >= 0xFFFFFFFFL
+            || count == 0xFFFF) {
+            throw new ZipException("Zip64 isn't supported");
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer local = ByteBuffer.allocate(30 + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        local.putInt(LOCAL_HEADER)
+            .putShort((short) VERSION)
+            .putShort((short) flags)
+            .putShort((short) method)
+            .putInt(dosTime)
+            .putInt((int) crc)
+            .putInt((int) compressedSize)
+            .putInt((int) size)
+            .putShort((short) nameBytes.length)
+            .putShort((short) 0)
+            .put(nameBytes);
+        out.write(local.array());
+
+        ByteBuffer entry = ByteBuffer.allocate(46 + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        entry.putInt(CENTRAL_HEADER)
+            .putShort((short) VERSION)
+            .putShort((short) VERSION)
+            .putShort((short) flags)
+            .putShort((short) method)
+            .putInt(dosTime)
+            .putInt((int) crc)
+            .putInt((int) compressedSize)
+            .putInt((int) size)
+            .putShort((short) nameBytes.length)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putInt(0)
+            .putInt((int) position)
+            .put(nameBytes);
+        central.write(entry.array());
+
+        position += local.capacity();
+        count++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (position > 0xFFFFFFFFL) {
+                throw new ZipException("Zip64 isn't supported");
+            }
+            ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+            end.putInt(END_HEADER)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) count)
+                .putShort((short) count)
+                .putInt(central.size())
+                .putInt((int) position)
+                .putShort((short) 0);
+            central.writeTo(out);
+            out.write(end.array());
+        } finally {
+            out.close();
+        }
+    }
+
+    // An entry with its data already compressed, so that the
+    // work can be done away from the thread writing the zip
+    public static class Entry {
+        private final String name;
+        private final int method;
+        private final int dosTime;
+        private final long crc;
+        private final long size;
+        private final byte[] data;
+
+        public Entry(String name, byte[] data, boolean stored, int level) {
+            this.name = name;
+            dosTime = dosTime(System.currentTimeMillis());
+            size = data.length;
+            CRC32 crc32 = new CRC32();
+            crc32.update(data);
+            crc = crc32.getValue();
+            if (stored) {
+                method = 0;
+                this.data = data;
+            } else {
+                method = 8;
+                this.data = deflate(data, level);
+            }
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        private static byte[] deflate(byte[] data, int level) {
+            Deflater deflater = new Deflater(level, true);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+                byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    out.write(buffer, 0, count);
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private static int dosTime(long time) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(time);
+            int year = Math.max(calendar.get(Calendar.YEAR), 1980);
+            return ((year - 1980) << 25)
+                | ((calendar.get(Calendar.MONTH) + 1) << 21)
+                | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+                | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | (calendar.get(Calendar.MINUTE) << 5)
+                | (calendar.get(Calendar.SECOND) >> 1);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.patchtools.matching;
+
+import uk.co.thinkofdeath.patchtools.PatchScope;
+import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
+import uk.co.thinkofdeath.patchtools.wrappers.ClassWrapper;
+import uk.co.thinkofdeath.patchtools.wrappers.FieldWrapper;
+import uk.co.thinkofdeath.patchtools.wrappers.MethodWrapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// The mappings found for a single match group, stored by
+// name so it can be saved and used on a later run
+public class GroupSolution {
+
+    public Map<String, ClassEntry> classes = new HashMap<>();
+    public List<MemberEntry> methods = new ArrayList<>();
+    public List<MemberEntry> fields = new ArrayList<>();
+
+    public static class ClassEntry {
+        public String name;
+        public String fingerprint;
+    }
+
+    public static class MemberEntry {
+        public String owner;
+        public String name;
+        public String desc;
+        public String patchName;
+        public String patchDesc;
+    }
+
+    // Returns null if the solution can't be saved, this happens
+    // when a class wasn't loaded from bytes
+    public static GroupSolution from(MatchGroup group, PatchScope scope) {
+        return from(group, scope, ClassWrapper::getFingerprint);
+    }
+
+    public static GroupSolution from(MatchGroup group, PatchScope scope, Function<ClassWrapper, String> fingerprints) {
+        GroupSolution solution = new GroupSolution();
+        for (MatchClass c : group.getClasses()) {
+            ClassWrapper cls = scope.getClass(c.getName());
+            String fingerprint = cls == null ? null : fingerprints.apply(cls);
+            if (fingerprint == null) {
+                return null;
+            }
+            ClassEntry entry = new ClassEntry();
+            entry.name = cls.getNode().name;
+            entry.fingerprint = fingerprint;
+            solution.classes.put(c.getName(), entry);
+
+            for (MatchField f : c.getFields()) {
+                FieldWrapper fw = scope.getField(cls, f.getName(), f.getDesc());
+                if (fw == null) {
+                    return null;
+                }
+                solution.fields.add(member(c, fw.getName(), fw.getDesc(), f.getName(), f.getDesc()));
+            }
+            for (MatchMethod m : c.getMethods()) {
+                MethodWrapper mw = scope.getMethod(cls, m.getName(), m.getDesc());
+                if (mw == null) {
+                    return null;
+                }
+                solution.methods.add(member(c, mw.getName(), mw.getDesc(), m.getName(), m.getDesc()));
+            }
+        }
+        return solution;
+    }
+
+    private static MemberEntry member(MatchClass owner, String name, String desc, String patchName, String patchDesc) {
+        MemberEntry entry = new MemberEntry();
+        entry.owner = owner.getName();
+        entry.name = name;
+        entry.desc = desc;
+        entry.patchName = patchName;
+        entry.patchDesc = patchDesc;
+        return entry;
+    }
+
+    // Rebuilds the mappings on top of the passed scope. Returns
+    // null if any of the classes have changed since the solution
+    // was created
+    public PatchScope toScope(ClassSet classSet, PatchScope scope) {
+        for (Map.Entry<String, ClassEntry> e : classes.entrySet()) {
+            ClassWrapper cls = classSet.getClassWrapper(e.getValue().name);
+            if (cls == null || cls.isHidden()
+                || !e.getValue().fingerprint.equals(cls.getFingerprint())) {
+                return null;
+            }
+            scope.putClass(cls, e.getKey());
+        }
+        for (MemberEntry entry : fields) {
+            ClassWrapper cls = scope.getClass(entry.owner);
+            FieldWrapper fw = cls == null ? null : cls.getField(entry.name, entry.desc);
+            if (fw == null) {
+                return null;
+            }
+            scope.putField(fw, entry.patchName, entry.patchDesc);
+        }
+        for (MemberEntry entry : methods) {
+            ClassWrapper cls = scope.getClass(entry.owner);
+            MethodWrapper mw = cls == null ? null : cls.getMethod(entry.name, entry.desc);
+            if (mw == null) {
+                return null;
+            }
+            scope.putMethod(mw, entry.patchName, entry.patchDesc);
+        }
+        return scope;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.patchtools.matching;
+
+import com.google.common.io.Files;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+
+// Stores solved match groups on disk so that later runs
+// with the same patch and classes can skip matching
+public class MatchCache {
+
+    private final File directory;
+    private final Gson gson = new Gson();
+
+    public MatchCache(File directory) {
+        this.directory = directory;
+    }
+
+    public GroupSolution load(String key) {
+        File file = new File(directory, key + ".json");
+        if (!file.exists()) {
+            return null;
+        }
+        try (Reader reader = Files.newReader(file, StandardCharsets.UTF_8)) {
+            return gson.fromJson(reader, GroupSolution.class);
+        } catch (IOException | JsonParseException e) {
+            // A broken entry is just treated as a miss
+            return null;
+        }
+    }
+
+    public void store(String key, GroupSolution solution) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new RuntimeException("Failed to create the cache directory");
+        }
+        // Written to a temp file first so another process
+        // never sees a partly written entry
+        File file = new File(directory, key + ".json");
+        File temp = new File(directory, key + ".json.tmp" + Thread.currentThread().getId());
+        try {
+            try (Writer writer = Files.newWriter(temp, StandardCharsets.UTF_8)) {
+                gson.toJson(solution, writer);
+            }
+            java.nio.file.Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            temp.delete();
+            throw new UncheckedIOException(e);
+        }
+    }
+}
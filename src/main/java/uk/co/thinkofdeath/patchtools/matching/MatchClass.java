@@ -21,11 +21,12 @@ import org.objectweb.asm.tree.ClassNode;
 import uk.co.thinkofdeath.patchtools.logging.StateLogger;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassWrapper;
+import uk.co.thinkofdeath.patchtools.wrappers.NodeIds;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
 public class MatchClass {
 
@@ -35,8 +36,13 @@ public class MatchClass {
     private List<MatchMethod> methods = new ArrayList<>();
     private List<MatchField> fields = new ArrayList<>();
 
-    private List<ClassNode> matchedClasses = new ArrayList<>();
-    private Set<ClassNode> checkedClasses = new HashSet<>();
+    // Candidates and classes that have been checked by their
+    // id in the class set's NodeIds
+    private NodeIds ids;
+    private Worklist worklist;
+    private final BitSet matchedClasses = new BitSet();
+    private final BitSet checkedClasses = new BitSet();
+    private volatile List<ClassNode> matchList;
 
     public MatchClass(@NotNull String cls) {
         this.cls = cls;
@@ -46,6 +52,20 @@ public class MatchClass {
         return cls;
     }
 
+    void setIds(NodeIds ids) {
+        if (this.ids == ids) return;
+        this.ids = ids;
+        methods.forEach(m -> m.setIds(ids));
+        fields.forEach(f -> f.setIds(ids));
+    }
+
+    void setWorklist(Worklist worklist) {
+        if (this.worklist == worklist) return;
+        this.worklist = worklist;
+        methods.forEach(m -> m.setWorklist(worklist));
+        fields.forEach(f -> f.setWorklist(worklist));
+    }
+
     public void setSuperClass(@NotNull MatchClass matchClass) {
         if (superClass != null) {
             throw new IllegalArgumentException("Multiple super classes");
@@ -60,6 +80,8 @@ public class MatchClass {
     public MatchMethod addMethod(@NotNull MatchMethod method) {
         if (!methods.contains(method)) {
             methods.add(method);
+            method.setIds(ids);
+            method.setWorklist(worklist);
             return method;
         } else {
             return methods.stream().filter(method::equals).findAny().orElse(method);
@@ -69,6 +91,8 @@ public class MatchClass {
     public MatchField addField(@NotNull MatchField field) {
         if (!fields.contains(field)) {
             fields.add(field);
+            field.setIds(ids);
+            field.setWorklist(worklist);
             return field;
         } else {
             return fields.stream().filter(field::equals).findAny().orElse(field);
@@ -76,31 +100,44 @@ public class MatchClass {
     }
 
     public void addMatch(@NotNull ClassNode classNode) {
-        if (!checkedClasses.contains(classNode) && !matchedClasses.contains(classNode)) {
-            matchedClasses.add(classNode);
+        int id = ids.getId(classNode);
+        if (!checkedClasses.get(id) && !matchedClasses.get(id)) {
+            matchedClasses.set(id);
+            matchList = null;
+            if (worklist != null) {
+                worklist.add(this, id);
+            }
         }
     }
 
     public void removeMatch(@NotNull ClassNode classNode) {
-        matchedClasses.remove(classNode);
+        int id = ids.getId(classNode);
+        if (matchedClasses.get(id)) {
+            matchedClasses.clear(id);
+            matchList = null;
+        }
     }
 
     public void addChecked(@NotNull ClassNode classNode) {
-        checkedClasses.add(classNode);
+        checkedClasses.set(ids.getId(classNode));
     }
 
-    public boolean hasUnchecked() {
-        return matchedClasses.stream().anyMatch(c -> !checkedClasses.contains(c));
-    }
-
-    public ClassNode[] getUncheckedClasses() {
-        return matchedClasses.stream()
-            .filter(c -> !checkedClasses.contains(c))
-            .toArray(ClassNode[]::new);
+    // In id order. Cached until the candidates change
+    public List<ClassNode> getMatches() {
+        List<ClassNode> matches = matchList;
+        if (matches == null) {
+            matches = new ArrayList<>(matchedClasses.cardinality());
+            for (int i = matchedClasses.nextSetBit(0); i >= 0; i = matchedClasses.nextSetBit(i + 1)) {
+                matches.add(ids.getClass(i));
+            }
+            matches = Collections.unmodifiableList(matches);
+            matchList = matches;
+        }
+        return matches;
     }
 
-    public List<ClassNode> getMatches() {
-        return matchedClasses;
+    public boolean isMatch(@NotNull ClassNode classNode) {
+        return matchedClasses.get(ids.getId(classNode));
     }
 
     public MatchClass getSuperClass() {
@@ -120,7 +157,7 @@ public class MatchClass {
     }
 
     public boolean hasChecked(int length) {
-        return checkedClasses.size() == length;
+        return checkedClasses.cardinality() == length;
     }
 
     @Override
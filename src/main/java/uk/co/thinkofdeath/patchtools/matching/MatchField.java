@@ -24,9 +24,9 @@ import uk.co.thinkofdeath.patchtools.logging.StateLogger;
 import uk.co.thinkofdeath.patchtools.patch.Ident;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassWrapper;
+import uk.co.thinkofdeath.patchtools.wrappers.NodeIds;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class MatchField {
 
@@ -35,8 +35,9 @@ public class MatchField {
     private final String desc;
     private Type type;
 
-    private List<FieldPair> matchedFields = new ArrayList<>();
-    private Set<FieldPair> checkedFields = new HashSet<>();
+    private NodeIds ids;
+    private Worklist worklist;
+    private final MemberDomain<FieldNode> matchedFields = new MemberDomain<>();
 
     public MatchField(MatchClass owner, String name, String desc) {
         this.owner = owner;
@@ -64,69 +65,57 @@ public class MatchField {
         return desc;
     }
 
-    public void addMatch(@NotNull ClassNode owner, @NotNull FieldNode fieldNode) {
-        if (!checkedFields.contains(new FieldPair(owner, fieldNode))) {
-            matchedFields.add(new FieldPair(owner, fieldNode));
-        }
+    void setIds(NodeIds ids) {
+        this.ids = ids;
     }
 
-    public void removeMatch(@NotNull ClassNode owner, @NotNull FieldNode fieldNode) {
-        matchedFields.remove(new FieldPair(owner, fieldNode));
+    void setWorklist(Worklist worklist) {
+        this.worklist = worklist;
     }
 
-    public void removeMatch(ClassNode clazz) {
-        ListIterator<FieldPair> it = matchedFields.listIterator();
-        while (it.hasNext()) {
-            FieldPair pair = it.next();
-            if (pair.owner == clazz) {
-                it.remove();
-            }
+    public void addMatch(@NotNull ClassNode owner, @NotNull FieldNode fieldNode) {
+        int ownerId = ids.getId(owner);
+        int fieldId = ids.getId(fieldNode);
+        if (matchedFields.add(ownerId, fieldId, fieldNode) && worklist != null) {
+            worklist.add(this, ownerId, fieldId);
         }
     }
 
-    public void addChecked(@NotNull ClassNode owner, @NotNull FieldNode fieldNode) {
-        checkedFields.add(new FieldPair(owner, fieldNode));
+    public void removeMatch(@NotNull ClassNode owner, @NotNull FieldNode fieldNode) {
+        matchedFields.remove(ids.getId(owner), ids.getId(fieldNode));
     }
 
-    public boolean hasUnchecked() {
-        return matchedFields.stream().anyMatch(fieldPair -> !checkedFields.contains(fieldPair));
+    public void removeMatch(ClassNode clazz) {
+        matchedFields.removeOwner(ids.getId(clazz));
     }
 
-    public FieldPair[] getUncheckedMethods() {
-        return matchedFields.stream()
-            .filter(c -> !checkedFields.contains(c))
-            .toArray(FieldPair[]::new);
+    public void addChecked(@NotNull ClassNode owner, @NotNull FieldNode fieldNode) {
+        matchedFields.addChecked(ids.getId(owner), ids.getId(fieldNode));
     }
 
     public List<FieldNode> getMatches() {
-        return matchedFields.stream()
-            .map(FieldPair::getNode)
-            .collect(Collectors.toList());
+        return matchedFields.getMatches();
     }
 
+    // Shared and read only
     public List<FieldNode> getMatches(ClassNode owner) {
-        return matchedFields.stream()
-            .filter(m -> m.getOwner() == owner)
-            .map(FieldPair::getNode)
-            .collect(Collectors.toList());
+        return matchedFields.getMatches(ids.getId(owner));
     }
 
     public boolean usesNode(ClassNode clazz) {
-        return matchedFields.stream()
-            .anyMatch(m -> m.owner == clazz);
+        return matchedFields.usesOwner(ids.getId(clazz));
     }
 
-    public void check(StateLogger logger, ClassSet classSet, MatchGroup group, FieldPair pair) {
-        FieldNode node = pair.getNode();
-        addChecked(pair.getOwner(), pair.getNode());
+    public void check(StateLogger logger, ClassSet classSet, MatchGroup group, ClassNode owner, FieldNode node) {
+        addChecked(owner, node);
 
-        logger.println("- " + pair.getOwner().name + "." + node.name);
+        logger.println("- " + owner.name + "." + node.name);
         logger.indent();
 
         Type type = Type.getType(node.desc);
         if (type.getSort() != getType().getSort()) {
             logger.println(StateLogger.typeMismatch(getType(), type));
-            removeMatch(pair.getOwner(), node);
+            removeMatch(owner, node);
         } else if (type.getSort() == Type.OBJECT) {
             MatchClass retCls = group.getClass(new MatchClass(new Ident(getType().getInternalName()).getName()));
             ClassWrapper wrapper = classSet.getClassWrapper(type.getInternalName());
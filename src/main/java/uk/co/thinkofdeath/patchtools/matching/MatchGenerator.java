@@ -16,8 +16,11 @@
 
 package uk.co.thinkofdeath.patchtools.matching;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.hash.TObjectIntHashMap;
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldNode;
@@ -28,27 +31,52 @@ import uk.co.thinkofdeath.patchtools.logging.LoggableException;
 import uk.co.thinkofdeath.patchtools.logging.StateLogger;
 import uk.co.thinkofdeath.patchtools.patch.*;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
+import uk.co.thinkofdeath.patchtools.wrappers.ClassShape;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassWrapper;
 import uk.co.thinkofdeath.patchtools.wrappers.FieldWrapper;
 import uk.co.thinkofdeath.patchtools.wrappers.MethodWrapper;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 public class MatchGenerator {
 
+    // Compares the stats of two patch classes, the more string
+    // constants, instructions and then members the better
+    private static final Comparator<int[]> SELECTIVITY = Comparator.<int[]>comparingInt(s -> s[0])
+        .thenComparingInt(s -> s[1])
+        .thenComparingInt(s -> s[2]);
+
     private final ClassSet classSet;
     private final PatchClasses patchClasses;
     private final PatchScope scope;
+    private final ForkJoinPool pool;
+    private final MatchCache cache;
     private final List<MatchGroup> groups = new ArrayList<>();
-
-    private final TObjectIntMap<Object> state = new TObjectIntHashMap<>();
+    private PatchScope previousScope;
+    private Map<String, String> previousFingerprints;
 
     private final StateLogger logger = new StateLogger();
 
     public MatchGenerator(ClassSet classSet, PatchClasses patchClasses, PatchScope scope) {
+        this(classSet, patchClasses, scope, null, null);
+    }
+
+    public MatchGenerator(ClassSet classSet, PatchClasses patchClasses, PatchScope scope, ForkJoinPool pool) {
+        this(classSet, patchClasses, scope, pool, null);
+    }
+
+    public MatchGenerator(ClassSet classSet, PatchClasses patchClasses, PatchScope scope,
+                          ForkJoinPool pool, MatchCache cache) {
         this.classSet = classSet;
         this.patchClasses = patchClasses;
         this.scope = scope;
+        this.pool = pool;
+        this.cache = cache;
 
         try {
             // To work out the links between the patch classes
@@ -59,30 +87,6 @@ public class MatchGenerator {
             // sets which are quicker to match and apply
             generateGroups();
             groups.forEach(logger::createGroup);
-
-            // As a base every class would be matched to every
-            // class in the class set, for patches with more
-            // than one class this becomes a large number of
-            // tests to work with. To reduce the number of
-            // groups only the first class is given every
-            // class in the set and then the patch is partially
-            // tested (without the checking of class names just
-            // types and instructions) to reduce the number of
-            // classes, the references from the remaining classes
-            // are used to match the others up. With patches that
-            // have a good amount of information this normally
-            // leaves one or two classes per a patch class
-            reduceGroups();
-
-            // Setup the initial state
-
-            groups.stream()
-                .flatMap(g -> g.getClasses().stream())
-                .forEach(c -> {
-                    state.put(c, 0);
-                    c.getMethods().forEach(m -> state.put(m, 0));
-                    c.getFields().forEach(f -> state.put(f, 0));
-                });
         } catch (Exception e) {
             e.printStackTrace();
             e.printStackTrace(logger.getPrintWriter());
@@ -90,119 +94,37 @@ public class MatchGenerator {
         }
     }
 
-    private void reduceGroups() {
-        for (MatchGroup group : groups) {
-
-            MatchClass first = group.getFirst();
-
-            // Add every class as a match to the first
-            // patch class in the set
-            Arrays.stream(classSet.classes(true))
-                .map(classSet::getClassWrapper)
-                .map(ClassWrapper::getNode)
-                .forEach(first::addMatch);
-
-            logger.println("Adding all classes to " + first.getName());
-
-            // Marks whether we made any changes in the last
-            // cycle
-            boolean doneSomething = true;
-            while (doneSomething) {
-                doneSomething = false;
-                while (true) {
-                    Optional<MatchClass> clazz = group.getClasses().stream()
-                        .filter(MatchClass::hasUnchecked)
-                        .findAny();
-                    if (!clazz.isPresent()) {
-                        break;
-                    }
-                    MatchClass cls = clazz.get();
-                    doneSomething = true;
-                    logger.println("Checking " + cls.getName());
-                    logger.indent();
-
-                    ClassNode[] unchecked = cls.getUncheckedClasses();
-                    Arrays.stream(unchecked)
-                        .forEach(node -> cls.check(logger, classSet, node));
-
-                    logger.unindent();
-                }
-
-                while (true) {
-                    Optional<MatchField> optionalField = group.getClasses().stream()
-                        .flatMap(c -> c.getFields().stream())
-                        .filter(MatchField::hasUnchecked)
-                        .findAny();
-                    if (!optionalField.isPresent()) {
-                        break;
-                    }
-                    MatchField field = optionalField.get();
-                    doneSomething = true;
-                    logger.println("Checking " + field.getOwner().getName() + "." + field.getName());
-                    logger.indent();
-
-                    MatchField.FieldPair[] unchecked = field.getUncheckedMethods();
-                    Arrays.stream(unchecked)
-                        .forEach(pair -> field.check(logger, classSet, group, pair));
-
-                    logger.unindent();
-                }
-
-                while (true) {
-                    Optional<MatchMethod> optionalMethod = group.getClasses().stream()
-                        .flatMap(c -> c.getMethods().stream())
-                        .filter(MatchMethod::hasUnchecked)
-                        .findAny();
-                    if (!optionalMethod.isPresent()) {
-                        break;
-                    }
-                    MatchMethod method = optionalMethod.get();
-                    doneSomething = true;
-                    logger.println("Checking " + method.getOwner().getName()
-                        + "::" + method.getName() + method.getDesc());
-                    logger.indent();
-
-                    MatchMethod.MethodPair[] unchecked = method.getUncheckedMethods();
-                    Arrays.stream(unchecked)
-                        .forEach(pair -> method.check(logger, classSet, patchClasses, group, pair));
-
-                    logger.unindent();
-                }
-
-                if (!doneSomething) {
-                    String[] classes = classSet.classes(true);
-                    // Check for classes without a match and as a last ditch
-                    // method check against the rest of the classes
-                    boolean anyUnmatched = group.getClasses().stream()
-                        .filter(c -> c.getMatches().isEmpty())
-                        .anyMatch(c -> !c.hasChecked(classes.length));
-
-                    if (anyUnmatched) {
-                        group.getClasses().stream()
-                            .filter(c -> c.getMatches().isEmpty())
-                            .filter(c -> !c.hasChecked(classes.length))
-                            .forEach(c -> Arrays.stream(classes)
-                                .map(classSet::getClassWrapper)
-                                .map(ClassWrapper::getNode)
-                                .forEach(c::addMatch));
-                        doneSomething = true;
-                    }
-                }
-            }
+    // Uses the matches from an earlier run for every group
+    // whose classes are unchanged. The fingerprints are the
+    // ones the classes had when the scope was created
+    public void setPrevious(PatchScope previousScope, Map<String, String> previousFingerprints) {
+        if (previousScope != null && previousFingerprints == null) {
+            throw new IllegalArgumentException("A previous scope needs the fingerprints it was created with");
+        }
+        this.previousScope = previousScope;
+        this.previousFingerprints = previousFingerprints;
+    }
 
-            // Remove incomplete classes
-            for (MatchClass cls : group.getClasses()) {
-                List<ClassNode> matches = new ArrayList<>(cls.getMatches());
-                matches.stream()
-                    .filter(clazz -> cls.getMethods().stream().anyMatch(m -> !m.usesNode(clazz))
-                        || cls.getFields().stream().anyMatch(f -> !f.usesNode(clazz)))
-                    .forEach(clazz -> {
-                        cls.removeMatch(clazz);
-                        cls.getMethods().forEach(m -> m.removeMatch(clazz));
-                        cls.getFields().forEach(f -> f.removeMatch(clazz));
-                    });
-            }
+    public PatchScope apply() {
+        List<GroupSolver> solvers = groups.stream()
+            .map(GroupSolver::new)
+            .collect(Collectors.toList());
+
+        List<PatchScope> scopes = new ArrayList<>();
+        if (pool == null) {
+            solvers.forEach(s -> scopes.add(s.run()));
+        } else {
+            // Groups don't share any patch classes so each one
+            // can be reduced and searched on its own thread
+            List<ForkJoinTask<PatchScope>> tasks = solvers.stream()
+                .map(s -> pool.submit(s::run))
+                .collect(Collectors.toList());
+            tasks.forEach(t -> scopes.add(t.join()));
         }
+
+        PatchScope finalScope = new PatchScope(scope);
+        scopes.forEach(finalScope::merge);
+        return finalScope;
     }
 
     private void generateGroups() {
@@ -311,151 +233,562 @@ public class MatchGenerator {
             });
     }
 
-    public PatchScope apply() {
-        try {
-            List<PatchScope> scopes = new ArrayList<>();
-            groupCheck:
-            for (MatchGroup group : groups) {
+    private class GroupSolver {
 
-                List<Object> tickList = generateTickList(group);
+        private final MatchGroup group;
+        private final StateLogger logger = new StateLogger();
 
-                long tick = 0;
+        GroupSolver(MatchGroup group) {
+            this.group = group;
+            logger.createGroup(group);
+        }
 
-                do {
-                    tick++;
+        PatchScope run() {
+            try {
+                if (previousScope != null) {
+                    GroupSolution previous = GroupSolution.from(group, previousScope,
+                        c -> previousFingerprints.get(c.getNode().name));
+                    PatchScope found = trySolution(previous);
+                    if (found != null) {
+                        logger.println("Using previous match");
+                        return found;
+                    }
+                }
 
-                    PatchScope testScope = generateScope(group, new PatchScope(scope));
-                    if (testScope == null) continue;
+                String cacheKey = null;
+                if (cache != null && patchClasses.getHash() != null) {
+                    cacheKey = cacheKey();
+                    PatchScope cached = trySolution(cache.load(cacheKey));
+                    if (cached != null) {
+                        logger.println("Using cached match");
+                        return cached;
+                    }
+                }
+
+                // As a base every class would be matched to every
+                // class in the class set, for patches with more
+                // than one class this becomes a large number of
+                // tests to work with. To reduce the number of
+                // groups only the most selective class is given the
+                // classes that could match it and then the patch is partially
+                // tested (without the checking of class names just
+                // types and instructions) to reduce the number of
+                // classes, the references from the remaining classes
+                // are used to match the others up. With patches that
+                // have a good amount of information this normally
+                // leaves one or two classes per a patch class
+                reduce();
+
+                List<Object> tickList = generateTickList(group);
 
-                    if (test(group, testScope)) {
-                        scopes.add(testScope);
-                        continue groupCheck;
+                // Instead of counting through every combination of
+                // candidates the search assigns one class, field or
+                // method at a time and checks what it can against the
+                // partially built scope. A candidate that fails (or
+                // leaves a later class/member without any possible
+                // match) prunes every combination below it. Only
+                // complete assignments get the full test
+                PatchScope testScope;
+                long ticks;
+                if (tickList.isEmpty()) {
+                    Search search = new Search(group, tickList, logger, new AtomicInteger(Integer.MAX_VALUE), 0);
+                    testScope = search.search(new PatchScope(scope));
+                    ticks = search.ticks;
+                } else if (pool == null) {
+                    // Same order as the parallel search below so
+                    // both find the same match
+                    Search search = new Search(group, tickList, logger, new AtomicInteger(Integer.MAX_VALUE), 0);
+                    int candidates = ((MatchClass) tickList.get(0)).getMatches().size();
+                    testScope = search.searchClass(0, new PatchScope(scope), 0, candidates);
+                    ticks = search.ticks;
+                } else {
+                    // Each candidate of the first class is its own subtree
+                    // so they can be searched at the same time. Every
+                    // worker has its own scopes (any assumptions made
+                    // while checking stay in there). A match stops the
+                    // workers on later candidates only, so the result is
+                    // the lowest candidate that matches, same as searching
+                    // them in order
+                    AtomicInteger solved = new AtomicInteger(Integer.MAX_VALUE);
+                    int candidates = ((MatchClass) tickList.get(0)).getMatches().size();
+                    List<Search> searches = new ArrayList<>();
+                    List<ForkJoinTask<PatchScope>> tasks = new ArrayList<>();
+                    for (int i = 0; i < candidates; i++) {
+                        int candidate = i;
+                        Search search = new Search(group, tickList, new StateLogger(), solved, candidate);
+                        searches.add(search);
+                        tasks.add(ForkJoinTask.adapt(() -> {
+                            PatchScope found = search.searchClass(0, new PatchScope(scope),
+                                candidate, candidate + 1);
+                            if (found != null) {
+                                solved.accumulateAndGet(candidate, Math::min);
+                            }
+                            return found;
+                        }));
+                    }
+                    ForkJoinTask.invokeAll(tasks);
+
+                    testScope = null;
+                    ticks = 0;
+                    for (int i = 0; i < candidates; i++) {
+                        logger.append(searches.get(i).logger);
+                        ticks += searches.get(i).ticks;
+                        if (testScope == null) {
+                            testScope = tasks.get(i).join();
+                        }
                     }
-                } while (tick(tickList));
-                logger.failedTicks(tick);
+                }
+                if (testScope == null) {
+                    logger.failedTicks(ticks);
+                    throw new LoggableException(logger);
+                }
+                if (cacheKey != null) {
+                    GroupSolution solution = GroupSolution.from(group, testScope);
+                    if (solution != null) {
+                        cache.store(cacheKey, solution);
+                    }
+                }
+                return testScope;
+            } catch (Exception e) {
+                e.printStackTrace(logger.getPrintWriter());
+                if (e instanceof LoggableException) {
+                    throw e;
+                }
                 throw new LoggableException(logger);
             }
-            PatchScope finalScope = new PatchScope(scope);
-            scopes.forEach(finalScope::merge);
-            return finalScope;
-        } catch (Exception e) {
-            e.printStackTrace(logger.getPrintWriter());
-            if (e instanceof LoggableException) {
-                throw e;
-            }
-            throw new LoggableException(logger);
         }
-    }
 
-    private boolean test(MatchGroup group, PatchScope scope) {
-        PatchClass[] classes = group.getClasses().stream()
-            .map(c -> patchClasses.getClass(c.getName()))
-            .filter(c -> c != null)
-            .toArray(PatchClass[]::new);
-        // Slightly faster to do it this way since the instruction checking is the heaviest
-        return Arrays.stream(classes).allMatch(c -> c.checkAttributes(logger, scope, classSet))
-            && Arrays.stream(classes).allMatch(c -> c.checkFields(logger, scope, classSet))
-            && Arrays.stream(classes).allMatch(c -> c.checkMethods(logger, scope, classSet))
-            && Arrays.stream(classes).allMatch(c -> c.checkMethodsInstructions(logger, scope, classSet));
-    }
+        // The patch text and the classes in the group decide the
+        // key, the classes themselves are checked when loading
+        private String cacheKey() {
+            Hasher hasher = Hashing.sha1().newHasher()
+                .putString(patchClasses.getHash().toString(), StandardCharsets.UTF_8);
+            group.getClasses().stream()
+                .map(MatchClass::getName)
+                .sorted()
+                .forEach(n -> hasher.putChar('\n').putString(n, StandardCharsets.UTF_8));
+            return hasher.hash().toString();
+        }
 
-    private List<Object> generateTickList(MatchGroup group) {
-        ArrayList<Object> tickList = new ArrayList<>();
-        group.getClasses().forEach(c -> {
-            tickList.add(c);
+        private PatchScope trySolution(GroupSolution solution) {
+            if (solution == null) {
+                return null;
+            }
+            PatchScope found = solution.toScope(classSet, new PatchScope(scope));
+            // Still tested once in case something else (e.g. an
+            // earlier patch) changed the classes
+            if (found == null || !new Search(group, Collections.emptyList(), logger,
+                new AtomicInteger(Integer.MAX_VALUE), 0).test(group, found)) {
+                logger.println("Stored match is out of date");
+                return null;
+            }
+            return found;
+        }
 
-            c.getFields().forEach(tickList::add);
-            c.getMethods().forEach(tickList::add);
-        });
-        return tickList;
-    }
+        private void reduce() {
+            // Every candidate added from here on is queued to
+            // be checked
+            Worklist worklist = new Worklist(classSet.getIds());
+            group.setWorklist(worklist);
 
-    private boolean tick(List<Object> tickList) {
-        for (int i = tickList.size() - 1; i >= 0; i--) {
-            Object o = tickList.get(i);
-            int index = state.get(o) + 1;
-            if (o instanceof MatchClass) {
-                MatchClass mc = (MatchClass) o;
-                if (index >= mc.getMatches().size()) {
-                    index = 0;
-                    state.put(o, index);
-                    continue;
+            // The patch class with the fewest possible classes is
+            // given those and the rest are found through it
+            MatchClass seed = null;
+            List<ClassWrapper> seeds = null;
+            for (MatchClass cls : group.getClasses()) {
+                List<ClassWrapper> found = candidates(cls);
+                if (found == null || found.isEmpty()) continue;
+                if (seed == null || found.size() < seeds.size()
+                    || (found.size() == seeds.size() && SELECTIVITY.compare(stats(cls), stats(seed)) > 0)) {
+                    seed = cls;
+                    seeds = found;
                 }
-                state.put(o, index);
-                return true;
-            } else if (o instanceof MatchMethod) {
-                MatchClass matchClass = nearestClass(tickList, i);
-                ClassNode cls = matchClass.getMatches().get(state.get(matchClass));
-                MatchMethod mc = (MatchMethod) o;
-                if (index >= mc.getMatches(cls).size()) {
-                    index = 0;
-                    state.put(o, index);
-                    continue;
+            }
+            if (seed == null) {
+                seed = group.getFirst();
+                seeds = classSet.findClasses(requiredShape(seed));
+            }
+            MatchClass first = seed;
+            seeds.stream()
+                .map(ClassWrapper::getNode)
+                .forEach(first::addMatch);
+
+            logger.println("Adding " + seeds.size() + " classes to " + first.getName());
+
+            while (true) {
+                worklist.drain(logger, classSet, patchClasses, group);
+
+                String[] classes = classSet.classes(true);
+                // Check for classes without a match and as a last ditch
+                // method check against the rest of the classes
+                boolean anyUnmatched = group.getClasses().stream()
+                    .filter(c -> c.getMatches().isEmpty())
+                    .anyMatch(c -> !c.hasChecked(classes.length));
+                if (!anyUnmatched) {
+                    break;
                 }
-                state.put(o, index);
-                return true;
-            } else if (o instanceof MatchField) {
-                MatchClass matchClass = nearestClass(tickList, i);
-                ClassNode cls = matchClass.getMatches().get(state.get(matchClass));
-                MatchField mc = (MatchField) o;
-                if (index >= mc.getMatches(cls).size()) {
-                    index = 0;
-                    state.put(o, index);
-                    continue;
+
+                group.getClasses().stream()
+                    .filter(c -> c.getMatches().isEmpty())
+                    .filter(c -> !c.hasChecked(classes.length))
+                    .forEach(c -> {
+                        // Classes with the right name and shape first,
+                        // then everything once those have been checked
+                        List<ClassWrapper> found = candidates(c);
+                        if (found != null) {
+                            found.stream()
+                                .map(ClassWrapper::getNode)
+                                .forEach(c::addMatch);
+                        }
+                        if (c.getMatches().isEmpty()) {
+                            Arrays.stream(classes)
+                                .map(classSet::getClassWrapper)
+                                .map(ClassWrapper::getNode)
+                                .forEach(c::addMatch);
+                        }
+                    });
+                if (worklist.isEmpty()) {
+                    break;
                 }
-                state.put(o, index);
-                return true;
+            }
+            group.setWorklist(null);
+
+            // Remove incomplete classes
+            for (MatchClass cls : group.getClasses()) {
+                List<ClassNode> matches = new ArrayList<>(cls.getMatches());
+                matches.stream()
+                    .filter(clazz -> cls.getMethods().stream().anyMatch(m -> !m.usesNode(clazz))
+                        || cls.getFields().stream().anyMatch(f -> !f.usesNode(clazz)))
+                    .forEach(clazz -> {
+                        cls.removeMatch(clazz);
+                        cls.getMethods().forEach(m -> m.removeMatch(clazz));
+                        cls.getFields().forEach(f -> f.removeMatch(clazz));
+                    });
             }
         }
-        return false;
-    }
 
-    private MatchClass nearestClass(List<Object> tickList, int index) {
-        for (int i = index; i >= 0; i--) {
-            if (tickList.get(i) instanceof MatchClass) {
-                return (MatchClass) tickList.get(i);
+        // The classes a patch class could be going by its name (if
+        // it isn't weak) and shape, null if the patch doesn't
+        // declare the class
+        private List<ClassWrapper> candidates(MatchClass cls) {
+            ClassShape shape = requiredShape(cls);
+            if (shape == null) {
+                return null;
+            }
+            List<ClassWrapper> found = classSet.findClasses(shape);
+            Ident ident = patchClasses.getClass(cls.getName()).getIdent();
+            if (!ident.isWeak()) {
+                found.removeIf(c -> !c.getNode().name.equals(ident.getName()));
+            }
+            return found;
+        }
+
+        // String constants, instructions and members that the
+        // patch matches against in a class. More of them means
+        // fewer classes will pass the checks
+        private int[] stats(MatchClass cls) {
+            int[] stats = new int[3];
+            PatchClass pc = patchClasses.getClass(cls.getName());
+            pc.getMethods().stream()
+                .filter(m -> m.getMode() != Mode.ADD)
+                .forEach(m -> {
+                    stats[2]++;
+                    m.getInstructions().stream()
+                        .filter(i -> i.mode != Mode.ADD)
+                        .forEach(i -> {
+                            if (i.instruction == Instruction.PUSH_STRING) stats[0]++;
+                            stats[1]++;
+                        });
+                });
+            stats[2] += pc.getFields().stream()
+                .filter(f -> f.getMode() != Mode.ADD)
+                .count();
+            return stats;
+        }
+
+        // What the class matched to a patch class needs to have
+        // for the patch's own declarations of it to be matched,
+        // null if the patch doesn't declare the class
+        private ClassShape requiredShape(MatchClass cls) {
+            PatchClass pc = patchClasses.getClass(cls.getName());
+            if (pc == null || pc.getMode() == Mode.ADD) {
+                return null;
+            }
+            int access = 0;
+            if (pc.getType() == ClassType.INTERFACE) {
+                access = Opcodes.ACC_INTERFACE;
+            } else if (pc.getType() == ClassType.ENUM) {
+                access = Opcodes.ACC_ENUM;
             }
+            boolean interfaces = pc.getInterfaces().stream()
+                .anyMatch(i -> i.getMode() != Mode.ADD);
+            // A matched super class is in the set
+            boolean superClass = cls.getSuperClass() != null
+                && group.getClasses().contains(cls.getSuperClass());
+            ClassShape shape = new ClassShape(access, interfaces ? 1 : 0, superClass ? 1 : 0);
+
+            Set<String> seen = new HashSet<>();
+            pc.getFields().stream()
+                .filter(f -> f.getMode() != Mode.ADD)
+                .filter(f -> seen.add(f.getIdent().getName() + " " + f.getDescRaw()))
+                .forEach(f -> shape.addField(f.getDesc().getSort(), f.isStatic(), f.isPrivate()));
+            pc.getMethods().stream()
+                .filter(m -> m.getMode() != Mode.ADD)
+                .filter(m -> seen.add(m.getIdent().getName() + m.getDescRaw()))
+                .forEach(m -> shape.addMethod(m.getDesc(), m.isStatic(), m.isPrivate(), m.isProtected()));
+            return shape;
+        }
+
+        // Classes with the fewest candidates come first so the
+        // search starts (and splits) on the smallest one
+        private List<Object> generateTickList(MatchGroup group) {
+            ArrayList<Object> tickList = new ArrayList<>();
+            group.getClasses().stream()
+                .sorted(Comparator.comparingInt(c -> c.getMatches().size()))
+                .forEach(c -> {
+                    tickList.add(c);
+
+                    c.getFields().forEach(tickList::add);
+                    c.getMethods().forEach(tickList::add);
+                });
+            return tickList;
         }
-        return null;
     }
 
-    private PatchScope generateScope(MatchGroup group, PatchScope scope) {
-        for (MatchClass c : group.getClasses()) {
+    private class Search {
+
+        private final MatchGroup group;
+        private final List<Object> tickList;
+        private final StateLogger logger;
+        // The lowest candidate of the first class that has
+        // been matched, only searches of higher candidates stop
+        private final AtomicInteger solved;
+        private final int candidate;
+        private final TObjectIntMap<Object> state = new TObjectIntHashMap<>();
+        // The classes and members picked so far, the order they
+        // are picked in depends on how many candidates they have
+        private final boolean[] assigned;
+        private int depth;
+        private long ticks;
+
+        Search(MatchGroup group, List<Object> tickList, StateLogger logger, AtomicInteger solved, int candidate) {
+            this.group = group;
+            this.tickList = tickList;
+            this.logger = logger;
+            this.solved = solved;
+            this.candidate = candidate;
+            assigned = new boolean[tickList.size()];
+        }
 
-            if (c.getMatches().isEmpty()) {
-                throw new LoggableException(logger);
+        private boolean test(MatchGroup group, PatchScope scope) {
+            PatchClass[] classes = group.getClasses().stream()
+                .map(c -> patchClasses.getClass(c.getName()))
+                .filter(c -> c != null)
+                .toArray(PatchClass[]::new);
+            // Slightly faster to do it this way since the instruction checking is the heaviest
+            return Arrays.stream(classes).allMatch(c -> c.checkAttributes(logger, scope, classSet))
+                && Arrays.stream(classes).allMatch(c -> c.checkFields(logger, scope, classSet))
+                && Arrays.stream(classes).allMatch(c -> c.checkMethods(logger, scope, classSet))
+                && Arrays.stream(classes).allMatch(c -> c.checkMethodsInstructions(logger, scope, classSet));
+        }
+
+        PatchScope search(PatchScope partial) {
+            if (cancelled()) {
+                return null;
+            }
+            if (depth == tickList.size()) {
+                ticks++;
+                PatchScope testScope = generateScope(group, new PatchScope(scope));
+                if (testScope != null && test(group, testScope)) {
+                    return testScope;
+                }
+                return null;
             }
 
-            ClassWrapper cls = classSet.getClassWrapper(c.getMatches().get(state.get(c)).name);
-            if (scope.putClass(cls, c.getName())) {
+            int index = next(partial);
+            if (index == -1) {
+                return null;
+            }
+            Object o = tickList.get(index);
+            if (o instanceof MatchClass) {
+                MatchClass mc = (MatchClass) o;
+                return searchClass(index, partial, 0, mc.getMatches().size());
+            }
+            assign(index, true);
+            try {
+                if (o instanceof MatchField) {
+                    MatchField mf = (MatchField) o;
+                    PatchClass pc = patchClasses.getClass(mf.getOwner().getName());
+                    PatchField pf = pc == null ? null : pc.getField(mf.getName(), mf.getDesc());
+                    ClassWrapper cls = partial.getClass(mf.getOwner().getName());
+                    FieldWrapper bound = partial.getField(cls, mf.getName(), mf.getDesc());
+                    List<FieldNode> matches = mf.getMatches(cls.getNode());
+                    for (int i = 0; i < matches.size(); i++) {
+                        FieldNode node = matches.get(i);
+                        FieldWrapper fw = cls.getField(node.name, node.desc);
+                        if (bound != null ? bound != fw : partial.hasField(fw)) continue;
+
+                        PatchScope child = new PatchScope(partial);
+                        child.putField(fw, mf.getName(), mf.getDesc());
+                        if (pf != null && !pc.checkField(logger, child, classSet, cls, pf)) continue;
+
+                        state.put(mf, i);
+                        PatchScope found = search(child);
+                        if (found != null) {
+                            return found;
+                        }
+                    }
+                } else if (o instanceof MatchMethod) {
+                    MatchMethod mm = (MatchMethod) o;
+                    PatchClass pc = patchClasses.getClass(mm.getOwner().getName());
+                    PatchMethod pm = pc == null ? null : pc.getMethod(mm.getName(), mm.getDesc());
+                    ClassWrapper cls = partial.getClass(mm.getOwner().getName());
+                    MethodWrapper bound = partial.getMethod(cls, mm.getName(), mm.getDesc());
+                    List<MethodNode> matches = mm.getMatches(cls.getNode());
+                    for (int i = 0; i < matches.size(); i++) {
+                        MethodNode node = matches.get(i);
+                        MethodWrapper mw = cls.getMethod(node.name, node.desc);
+                        if (bound != null ? bound != mw : partial.hasMethod(mw)) continue;
+
+                        PatchScope child = new PatchScope(partial);
+                        child.putMethod(mw, mm.getName(), mm.getDesc());
+                        if (pm != null && !pc.checkMethod(logger, child, classSet, cls, pm)) continue;
+
+                        state.put(mm, i);
+                        PatchScope found = search(child);
+                        if (found != null) {
+                            return found;
+                        }
+                    }
+                }
                 return null;
+            } finally {
+                assign(index, false);
             }
+        }
 
-            for (MatchField f : c.getFields()) {
-                List<FieldNode> matches = f.getMatches(cls.getNode());
-                if (matches.isEmpty()) {
-                    throw new LoggableException(logger);
+        PatchScope searchClass(int index, PatchScope partial, int from, int to) {
+            MatchClass mc = (MatchClass) tickList.get(index);
+            PatchClass pc = patchClasses.getClass(mc.getName());
+            // Checks on earlier classes may have already decided
+            // what this class has to be
+            ClassWrapper bound = partial.getClass(mc.getName());
+            List<ClassNode> matches = mc.getMatches();
+            assign(index, true);
+            try {
+                for (int i = from; i < to && !cancelled(); i++) {
+                    ClassWrapper cls = classSet.getClassWrapper(matches.get(i).name);
+                    if (bound != null && bound != cls) continue;
+
+                    PatchScope child = new PatchScope(partial);
+                    child.putClass(cls, mc.getName());
+                    if (pc != null && !pc.checkAttributes(logger, child, classSet)) continue;
+
+                    state.put(mc, i);
+                    PatchScope found = search(child);
+                    if (found != null) {
+                        return found;
+                    }
                 }
-                FieldNode node = matches.get(state.get(f));
-                FieldWrapper met = cls.getField(node.name, node.desc);
-                if (scope.putField(met, f.getName(), f.getDesc())) {
-                    return null;
+                return null;
+            } finally {
+                assign(index, false);
+            }
+        }
+
+        private boolean cancelled() {
+            return solved.get() < candidate;
+        }
+
+        private void assign(int index, boolean value) {
+            assigned[index] = value;
+            depth += value ? 1 : -1;
+        }
+
+        // The unassigned class, field or method with the fewest
+        // candidates left, fields and methods only once their
+        // class is known. -1 if any of them has no candidates
+        // left since nothing below here can match
+        private int next(PatchScope partial) {
+            int best = -1;
+            int bestSize = Integer.MAX_VALUE;
+            for (int i = 0; i < tickList.size(); i++) {
+                if (assigned[i]) continue;
+                int size = remaining(tickList.get(i), partial);
+                if (size == 0) {
+                    return -1;
+                }
+                if (size < bestSize) {
+                    best = i;
+                    bestSize = size;
                 }
             }
+            return best;
+        }
+
+        private int remaining(Object o, PatchScope partial) {
+            if (o instanceof MatchClass) {
+                MatchClass mc = (MatchClass) o;
+                ClassWrapper bound = partial.getClass(mc.getName());
+                if (bound != null) {
+                    return mc.isMatch(bound.getNode()) ? 1 : 0;
+                }
+                return mc.getMatches().size();
+            } else if (o instanceof MatchField) {
+                MatchField mf = (MatchField) o;
+                ClassWrapper cls = partial.getClass(mf.getOwner().getName());
+                if (cls != null) {
+                    return mf.getMatches(cls.getNode()).size();
+                }
+            } else if (o instanceof MatchMethod) {
+                MatchMethod mm = (MatchMethod) o;
+                ClassWrapper cls = partial.getClass(mm.getOwner().getName());
+                if (cls != null) {
+                    return mm.getMatches(cls.getNode()).size();
+                }
+            }
+            return Integer.MAX_VALUE;
+        }
 
-            for (MatchMethod m : c.getMethods()) {
-                List<MethodNode> matches = m.getMatches(cls.getNode());
-                if (matches.isEmpty()) {
+        private PatchScope generateScope(MatchGroup group, PatchScope scope) {
+            for (MatchClass c : group.getClasses()) {
+
+                if (c.getMatches().isEmpty()) {
                     throw new LoggableException(logger);
                 }
-                MethodNode node = matches.get(state.get(m));
-                MethodWrapper met = cls.getMethod(node.name, node.desc);
-                if (scope.putMethod(met, m.getName(), m.getDesc())) {
+
+                ClassWrapper cls = classSet.getClassWrapper(c.getMatches().get(state.get(c)).name);
+                if (scope.putClass(cls, c.getName())) {
                     return null;
                 }
+
+                for (MatchField f : c.getFields()) {
+                    List<FieldNode> matches = f.getMatches(cls.getNode());
+                    if (matches.isEmpty()) {
+                        throw new LoggableException(logger);
+                    }
+                    FieldNode node = matches.get(state.get(f));
+                    FieldWrapper met = cls.getField(node.name, node.desc);
+                    if (scope.putField(met, f.getName(), f.getDesc())) {
+                        return null;
+                    }
+                }
+
+                for (MatchMethod m : c.getMethods()) {
+                    List<MethodNode> matches = m.getMatches(cls.getNode());
+                    if (matches.isEmpty()) {
+                        throw new LoggableException(logger);
+                    }
+                    MethodNode node = matches.get(state.get(m));
+                    MethodWrapper met = cls.getMethod(node.name, node.desc);
+                    if (scope.putMethod(met, m.getName(), m.getDesc())) {
+                        return null;
+                    }
+                }
             }
+            return scope;
         }
-        return scope;
+
     }
 
     private void addToVisited(Map<MatchClass, MatchGroup> visited, Stack<MatchClass> visitList,
@@ -29,12 +29,14 @@ public class MatchGroup {
     private Map<String, MatchClass> classes = Maps.newHashMap();
     private MatchClass first;
     private ClassSet classSet;
+    private Worklist worklist;
 
     public MatchGroup(ClassSet classSet) {
         this.classSet = classSet;
     }
 
     public void add(@NotNull MatchClass cls) {
+        cls.setIds(classSet.getIds());
         if (first == null) first = cls;
         ClassWrapper wrp = classSet.getClassWrapper(cls.getName());
         if (cls.getName().equals("*") || (wrp != null && wrp.isHidden())) {
@@ -42,9 +44,19 @@ public class MatchGroup {
         }
         if (!classes.containsKey(cls.getName())) {
             classes.put(cls.getName(), cls);
+            if (worklist != null) {
+                cls.setWorklist(worklist);
+            }
         }
     }
 
+    // Candidates added to the classes of the group from now
+    // on are queued on the worklist
+    void setWorklist(Worklist worklist) {
+        this.worklist = worklist;
+        classes.values().forEach(c -> c.setWorklist(worklist));
+    }
+
     public void merge(MatchGroup other) {
         classes.putAll(other.classes);
     }
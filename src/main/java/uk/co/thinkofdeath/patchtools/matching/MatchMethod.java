@@ -26,9 +26,9 @@ import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassWrapper;
 import uk.co.thinkofdeath.patchtools.wrappers.FieldWrapper;
 import uk.co.thinkofdeath.patchtools.wrappers.MethodWrapper;
+import uk.co.thinkofdeath.patchtools.wrappers.NodeIds;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class MatchMethod {
 
@@ -38,8 +38,9 @@ public class MatchMethod {
     private final List<Type> arguments = new ArrayList<>();
     private Type returnType;
 
-    private List<MethodPair> matchedMethods = new ArrayList<>();
-    private Set<MethodPair> checkedMethods = new HashSet<>();
+    private NodeIds ids;
+    private Worklist worklist;
+    private final MemberDomain<MethodNode> matchedMethods = new MemberDomain<>();
 
     public MatchMethod(MatchClass owner, String name, String desc) {
         this.owner = owner;
@@ -75,64 +76,52 @@ public class MatchMethod {
         return desc;
     }
 
-    public void addMatch(@NotNull ClassNode owner, @NotNull MethodNode methodNode) {
-        if (!checkedMethods.contains(new MethodPair(owner, methodNode))) {
-            matchedMethods.add(new MethodPair(owner, methodNode));
-        }
+    void setIds(NodeIds ids) {
+        this.ids = ids;
     }
 
-    public void removeMatch(@NotNull ClassNode owner, @NotNull MethodNode methodNode) {
-        matchedMethods.remove(new MethodPair(owner, methodNode));
+    void setWorklist(Worklist worklist) {
+        this.worklist = worklist;
     }
 
-    public void removeMatch(ClassNode clazz) {
-        ListIterator<MethodPair> it = matchedMethods.listIterator();
-        while (it.hasNext()) {
-            MethodPair pair = it.next();
-            if (pair.owner == clazz) {
-                it.remove();
-            }
+    public void addMatch(@NotNull ClassNode owner, @NotNull MethodNode methodNode) {
+        int ownerId = ids.getId(owner);
+        int methodId = ids.getId(methodNode);
+        if (matchedMethods.add(ownerId, methodId, methodNode) && worklist != null) {
+            worklist.add(this, ownerId, methodId);
         }
     }
 
-    public void addChecked(@NotNull ClassNode owner, @NotNull MethodNode methodNode) {
-        checkedMethods.add(new MethodPair(owner, methodNode));
+    public void removeMatch(@NotNull ClassNode owner, @NotNull MethodNode methodNode) {
+        matchedMethods.remove(ids.getId(owner), ids.getId(methodNode));
     }
 
-    public boolean hasUnchecked() {
-        return matchedMethods.stream().anyMatch(methodPair -> !checkedMethods.contains(methodPair));
+    public void removeMatch(ClassNode clazz) {
+        matchedMethods.removeOwner(ids.getId(clazz));
     }
 
-    public MethodPair[] getUncheckedMethods() {
-        return matchedMethods.stream()
-            .filter(c -> !checkedMethods.contains(c))
-            .toArray(MethodPair[]::new);
+    public void addChecked(@NotNull ClassNode owner, @NotNull MethodNode methodNode) {
+        matchedMethods.addChecked(ids.getId(owner), ids.getId(methodNode));
     }
 
     public List<MethodNode> getMatches() {
-        return matchedMethods.stream()
-            .map(MethodPair::getNode)
-            .collect(Collectors.toList());
+        return matchedMethods.getMatches();
     }
 
+    // Shared and read only
     public List<MethodNode> getMatches(ClassNode owner) {
-        return matchedMethods.stream()
-            .filter(m -> m.getOwner() == owner)
-            .map(MethodPair::getNode)
-            .collect(Collectors.toList());
+        return matchedMethods.getMatches(ids.getId(owner));
     }
 
     public boolean usesNode(ClassNode clazz) {
-        return matchedMethods.stream()
-            .anyMatch(m -> m.owner == clazz);
+        return matchedMethods.usesOwner(ids.getId(clazz));
     }
 
     public void check(StateLogger logger, ClassSet classSet, PatchClasses patchClasses,
-                      MatchGroup group, MethodPair pair) {
-        MethodNode node = pair.getNode();
-        addChecked(pair.getOwner(), pair.getNode());
+                      MatchGroup group, ClassNode owner, MethodNode node) {
+        addChecked(owner, node);
 
-        logger.println("- " + pair.getOwner().name + "::" + node.name + node.desc);
+        logger.println("- " + owner.name + "::" + node.name + node.desc);
         logger.indent();
         boolean inCode = false;
 
@@ -145,13 +134,13 @@ public class MatchMethod {
             if (type.getArgumentTypes().length != getArguments().size()) {
                 logger.println("Argument size mis-match " + getArguments().size()
                     + " != " + type.getArgumentTypes().length);
-                removeMatch(pair.getOwner(), node);
+                removeMatch(owner, node);
                 return;
             }
 
             Type ret = type.getReturnType();
             if (ret.getSort() != getReturnType().getSort()) {
-                removeMatch(pair.getOwner(), node);
+                removeMatch(owner, node);
                 logger.println(StateLogger.typeMismatch(getReturnType(), ret));
                 return;
             } else if (ret.getSort() == Type.OBJECT) {
@@ -167,7 +156,7 @@ public class MatchMethod {
             for (int i = 0; i < argumentTypes.length; i++) {
                 Type arg = argumentTypes[i];
                 if (arg.getSort() != getArguments().get(i).getSort()) {
-                    removeMatch(pair.getOwner(), node);
+                    removeMatch(owner, node);
                     logger.println(StateLogger.typeMismatch(getArguments().get(i), arg));
                     return;
                 } else if (arg.getSort() == Type.OBJECT) {
@@ -193,16 +182,14 @@ public class MatchMethod {
                     inCode = true;
 
                     if (!pm.check(logger, classSet, null, node)) {
-                        removeMatch(pair.getOwner(), node);
+                        removeMatch(owner, node);
                         return;
                     }
 
-                    ListIterator<AbstractInsnNode> it = node.instructions.iterator();
                     Set<ClassNode> referencedClasses = new HashSet<>();
                     Set<MatchMethod.MethodPair> referencedMethods = new HashSet<>();
                     Set<MatchField.FieldPair> referencedFields = new HashSet<>();
-                    while (it.hasNext()) {
-                        AbstractInsnNode insn = it.next();
+                    for (AbstractInsnNode insn : MethodInstructions.of(node).getInstructions()) {
 
                         if (insn instanceof MethodInsnNode) {
                             MethodInsnNode methodInsnNode = (MethodInsnNode) insn;
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.patchtools.matching;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// The possible members of a patch field or method grouped by
+// the class they were found in. Classes and members are known
+// by their NodeIds and keep the order they were first added in.
+// Searches only read so they can share a domain between threads
+class MemberDomain<T> {
+
+    private final TIntObjectHashMap<Bucket<T>> buckets = new TIntObjectHashMap<>();
+    private final TIntArrayList owners = new TIntArrayList();
+
+    // Whether this is a new candidate
+    boolean add(int owner, int member, T node) {
+        Bucket<T> bucket = buckets.get(owner);
+        if (bucket == null) {
+            bucket = new Bucket<>();
+            buckets.put(owner, bucket);
+            owners.add(owner);
+        }
+        if (bucket.checked.contains(member) || bucket.positions.containsKey(member)) {
+            return false;
+        }
+        bucket.positions.put(member, bucket.members.size());
+        bucket.members.add(member);
+        bucket.nodes.add(node);
+        return true;
+    }
+
+    void remove(int owner, int member) {
+        Bucket<T> bucket = buckets.get(owner);
+        if (bucket == null) {
+            return;
+        }
+        if (!bucket.positions.containsKey(member)) {
+            return;
+        }
+        int index = bucket.positions.remove(member);
+        bucket.members.removeAt(index);
+        bucket.nodes.remove(index);
+        // Everything after it moves down one
+        for (int i = index; i < bucket.members.size(); i++) {
+            bucket.positions.put(bucket.members.getQuick(i), i);
+        }
+    }
+
+    void removeOwner(int owner) {
+        Bucket<T> bucket = buckets.get(owner);
+        if (bucket == null) {
+            return;
+        }
+        bucket.members.clear();
+        bucket.positions.clear();
+        bucket.nodes.clear();
+    }
+
+    void addChecked(int owner, int member) {
+        Bucket<T> bucket = buckets.get(owner);
+        if (bucket == null) {
+            bucket = new Bucket<>();
+            buckets.put(owner, bucket);
+            owners.add(owner);
+        }
+        bucket.checked.add(member);
+    }
+
+    List<T> getMatches() {
+        List<T> matches = new ArrayList<>();
+        for (int i = 0; i < owners.size(); i++) {
+            matches.addAll(buckets.get(owners.getQuick(i)).nodes);
+        }
+        return matches;
+    }
+
+    List<T> getMatches(int owner) {
+        Bucket<T> bucket = buckets.get(owner);
+        return bucket == null ? Collections.emptyList() : bucket.view;
+    }
+
+    boolean usesOwner(int owner) {
+        Bucket<T> bucket = buckets.get(owner);
+        return bucket != null && !bucket.members.isEmpty();
+    }
+
+    private static class Bucket<T> {
+        final TIntArrayList members = new TIntArrayList();
+        // Index of each member in members and nodes
+        final TIntIntHashMap positions = new TIntIntHashMap();
+        final List<T> nodes = new ArrayList<>();
+        final List<T> view = Collections.unmodifiableList(nodes);
+        final TIntHashSet checked = new TIntHashSet();
+    }
+}
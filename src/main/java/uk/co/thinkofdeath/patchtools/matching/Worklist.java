@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.patchtools.matching;
+
+import gnu.trove.list.array.TIntArrayList;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+import uk.co.thinkofdeath.patchtools.logging.StateLogger;
+import uk.co.thinkofdeath.patchtools.patch.PatchClasses;
+import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
+import uk.co.thinkofdeath.patchtools.wrappers.NodeIds;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Candidates that have been added to a group but not checked
+// yet. Every candidate is queued once, when it is added, so
+// reducing only does work for the candidates it creates.
+// Classes are checked before fields and fields before methods
+// since they are cheaper and add the candidates for the others.
+// Candidates are queued as their ids and only turned back into
+// nodes when they are checked
+class Worklist {
+
+    private final NodeIds ids;
+    private final Queue<MatchClass> classes = new Queue<>();
+    private final Queue<MatchField> fields = new Queue<>();
+    private final Queue<MatchMethod> methods = new Queue<>();
+    private Object current;
+
+    Worklist(NodeIds ids) {
+        this.ids = ids;
+    }
+
+    void add(MatchClass cls, int classId) {
+        classes.add(cls, classId, -1);
+    }
+
+    void add(MatchField field, int ownerId, int fieldId) {
+        fields.add(field, ownerId, fieldId);
+    }
+
+    void add(MatchMethod method, int ownerId, int methodId) {
+        methods.add(method, ownerId, methodId);
+    }
+
+    boolean isEmpty() {
+        return classes.isEmpty() && fields.isEmpty() && methods.isEmpty();
+    }
+
+    // Checks every queued candidate and the ones those
+    // checks add
+    void drain(StateLogger logger, ClassSet classSet, PatchClasses patchClasses, MatchGroup group) {
+        while (true) {
+            if (!classes.isEmpty()) {
+                MatchClass cls = classes.match();
+                ClassNode node = ids.getClass(classes.owner());
+                classes.poll();
+                enter(logger, cls, "Checking " + cls.getName());
+                cls.check(logger, classSet, node);
+            } else if (!fields.isEmpty()) {
+                MatchField field = fields.match();
+                ClassNode owner = ids.getClass(fields.owner());
+                FieldNode node = ids.getField(fields.member());
+                fields.poll();
+                enter(logger, field, "Checking " + field.getOwner().getName() + "." + field.getName());
+                field.check(logger, classSet, group, owner, node);
+            } else if (!methods.isEmpty()) {
+                MatchMethod method = methods.match();
+                ClassNode owner = ids.getClass(methods.owner());
+                MethodNode node = ids.getMethod(methods.member());
+                methods.poll();
+                enter(logger, method, "Checking " + method.getOwner().getName()
+                    + "::" + method.getName() + method.getDesc());
+                method.check(logger, classSet, patchClasses, group, owner, node);
+            } else {
+                break;
+            }
+        }
+        if (current != null) {
+            logger.unindent();
+            current = null;
+        }
+    }
+
+    // Candidates of the same patch class or member are
+    // normally queued together so they share a heading
+    private void enter(StateLogger logger, Object match, String heading) {
+        if (current == match) {
+            return;
+        }
+        if (current != null) {
+            logger.unindent();
+        }
+        current = match;
+        logger.println(heading);
+        logger.indent();
+    }
+
+    // First in first out, the lists are cleared once everything
+    // in them has been taken so they don't keep growing
+    private static class Queue<M> {
+        private final List<M> matches = new ArrayList<>();
+        private final TIntArrayList owners = new TIntArrayList();
+        private final TIntArrayList members = new TIntArrayList();
+        private int head;
+
+        void add(M match, int owner, int member) {
+            matches.add(match);
+            owners.add(owner);
+            members.add(member);
+        }
+
+        boolean isEmpty() {
+            return head == matches.size();
+        }
+
+        M match() {
+            return matches.get(head);
+        }
+
+        int owner() {
+            return owners.get(head);
+        }
+
+        int member() {
+            return members.get(head);
+        }
+
+        void poll() {
+            head++;
+            if (head == matches.size()) {
+                matches.clear();
+                owners.resetQuick();
+                members.resetQuick();
+                head = 0;
+            }
+        }
+    }
+}
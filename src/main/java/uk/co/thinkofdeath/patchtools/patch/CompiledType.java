@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.thinkofdeath.patchtools.patch;
+
+import com.google.common.collect.MapMaker;
+import org.objectweb.asm.Type;
+
+import java.util.concurrent.ConcurrentMap;
+
+// A type with everything PatchClass.checkTypes needs worked out
+// up front so checking instructions doesn't allocate. Patch types
+// are compiled once with their instruction, types from the classes
+// are cached by the descriptor instance so the entries go with
+// the classes they came from
+public class CompiledType {
+
+    private static final ConcurrentMap<String, CompiledType> descCache = new MapMaker()
+        .weakKeys()
+        .makeMap();
+    private static final ConcurrentMap<String, CompiledType> objectCache = new MapMaker()
+        .weakKeys()
+        .makeMap();
+    private static final ConcurrentMap<Type, CompiledType> typeCache = new MapMaker()
+        .weakKeys()
+        .makeMap();
+
+    private final int sort;
+    private final int dimensions;
+    private final int elementSort;
+    // The internal name of the (element) class, null for primitives
+    private final String name;
+    private final Ident ident;
+
+    public CompiledType(Type type) {
+        sort = type.getSort();
+        Type element = type;
+        if (sort == Type.ARRAY) {
+            dimensions = type.getDimensions();
+            element = type.getElementType();
+        } else {
+            dimensions = 0;
+        }
+        elementSort = element.getSort();
+        if (elementSort == Type.OBJECT) {
+            name = element.getInternalName();
+            ident = new Ident(name);
+        } else {
+            name = null;
+            ident = null;
+        }
+    }
+
+    // For a type descriptor
+    public static CompiledType of(String desc) {
+        CompiledType type = descCache.get(desc);
+        if (type == null) {
+            type = new CompiledType(Type.getType(desc));
+            descCache.put(desc, type);
+        }
+        return type;
+    }
+
+    // For an internal name (or array descriptor) like the ones
+    // used by type instructions
+    public static CompiledType ofObject(String internalName) {
+        CompiledType type = objectCache.get(internalName);
+        if (type == null) {
+            type = new CompiledType(Type.getObjectType(internalName));
+            objectCache.put(internalName, type);
+        }
+        return type;
+    }
+
+    // For a type constant (e.g. from ldc)
+    public static CompiledType of(Type t) {
+        CompiledType type = typeCache.get(t);
+        if (type == null) {
+            type = new CompiledType(t);
+            typeCache.put(t, type);
+        }
+        return type;
+    }
+
+    public int getSort() {
+        return sort;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    public int getElementSort() {
+        return elementSort;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Ident getIdent() {
+        return ident;
+    }
+}
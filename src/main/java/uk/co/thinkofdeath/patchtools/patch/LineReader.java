@@ -1,12 +1,20 @@
 package uk.co.thinkofdeath.patchtools.patch;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 
 public class LineReader extends BufferedReader {
 
     private int lineNumber = 0;
+    // Hash of every line read so far, used to key cached
+    // matches to the exact patch text
+    private final Hasher hasher = Hashing.sha1().newHasher();
 
     public LineReader(Reader in) {
         super(in);
@@ -15,7 +23,16 @@ public class LineReader extends BufferedReader {
     @Override
     public String readLine() throws IOException {
         lineNumber++;
-        return super.readLine();
+        String line = super.readLine();
+        if (line != null) {
+            hasher.putString(line, StandardCharsets.UTF_8).putChar('\n');
+        }
+        return line;
+    }
+
+    // Can only be called once
+    public HashCode hash() {
+        return hasher.hash();
     }
 
     public int getLineNumber() {
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.patchtools.patch;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodNode;
+import uk.co.thinkofdeath.patchtools.wrappers.LazyMethodNode;
+
+// A method's instructions with line numbers and frames
+// filtered out, along with the opcodes of its real instructions
+// (no labels either) in order and how many times each one is used.
+// Cached per method until a patch changes its instructions
+public class MethodInstructions {
+
+    private static final Cache<MethodNode, MethodInstructions> cache = CacheBuilder.newBuilder()
+        .weakKeys()
+        .build();
+
+    private final InsnList source;
+    private final int sourceSize;
+    private final AbstractInsnNode[] instructions;
+    private final int[] indices;
+    private final int[] opcodes;
+    private final int[] counts = new int[256];
+
+    private MethodInstructions(MethodNode node) {
+        source = node.instructions;
+        sourceSize = source.size();
+        AbstractInsnNode[] insns = new AbstractInsnNode[sourceSize];
+        int[] idx = new int[sourceSize];
+        int[] ops = new int[sourceSize];
+        int size = 0;
+        int opSize = 0;
+        int index = 0;
+        for (AbstractInsnNode insn = source.getFirst(); insn != null; insn = insn.getNext(), index++) {
+            int opcode = insn.getOpcode();
+            if (opcode >= 0) {
+                ops[opSize++] = opcode;
+                counts[opcode]++;
+            } else if (!(insn instanceof LabelNode)) {
+                continue;
+            }
+            insns[size] = insn;
+            idx[size++] = index;
+        }
+        instructions = new AbstractInsnNode[size];
+        System.arraycopy(insns, 0, instructions, 0, size);
+        indices = new int[size];
+        System.arraycopy(idx, 0, indices, 0, size);
+        opcodes = new int[opSize];
+        System.arraycopy(ops, 0, opcodes, 0, opSize);
+    }
+
+    public static MethodInstructions of(MethodNode node) {
+        LazyMethodNode.load(node);
+        MethodInstructions insns = cache.getIfPresent(node);
+        // The instructions may have been replaced by a patch
+        if (insns == null || insns.source != node.instructions
+            || insns.sourceSize != node.instructions.size()) {
+            insns = new MethodInstructions(node);
+            cache.put(node, insns);
+        }
+        return insns;
+    }
+
+    public static void invalidate(MethodNode node) {
+        cache.invalidate(node);
+    }
+
+    // Real instructions and labels, don't modify
+    public AbstractInsnNode[] getInstructions() {
+        return instructions;
+    }
+
+    // The position of the instruction in the method's InsnList
+    public int getIndex(int i) {
+        return indices[i];
+    }
+
+    public int[] getOpcodes() {
+        return opcodes;
+    }
+
+    public int count(int opcode) {
+        return counts[opcode];
+    }
+}
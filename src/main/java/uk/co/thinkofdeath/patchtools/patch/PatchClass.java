@@ -30,7 +30,6 @@ import uk.co.thinkofdeath.patchtools.wrappers.MethodWrapper;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
@@ -103,6 +102,10 @@ public class PatchClass {
         return mode;
     }
 
+    public ClassType getType() {
+        return type;
+    }
+
     public List<PatchMethod> getMethods() {
         return methods;
     }
@@ -111,6 +114,20 @@ public class PatchClass {
         return fields;
     }
 
+    public PatchMethod getMethod(String name, String desc) {
+        return methods.stream()
+            .filter(m -> m.getIdent().getName().equals(name)
+                && m.getDescRaw().equals(desc))
+            .findFirst().orElse(null);
+    }
+
+    public PatchField getField(String name, String desc) {
+        return fields.stream()
+            .filter(f -> f.getIdent().getName().equals(name)
+                && f.getDescRaw().equals(desc))
+            .findFirst().orElse(null);
+    }
+
     public void apply(PatchScope scope, ClassSet classSet) {
         if (mode == Mode.REMOVE) {
             classSet.remove(ident.getName());
@@ -146,10 +163,10 @@ public class PatchClass {
                 clName = cl.getNode().name;
             }
             if (superModifier.getMode() == Mode.ADD) {
-                classWrapper.getNode().superName = clName;
+                classWrapper.setSuperName(clName);
             } else if (superModifier.getMode() == Mode.REMOVE) {
                 if (clName.equals("*") || clName.equals(classWrapper.getNode().superName)) {
-                    classWrapper.getNode().superName = "java/lang/Object";
+                    classWrapper.setSuperName("java/lang/Object");
                 }
             }
         }
@@ -184,7 +201,7 @@ public class PatchClass {
                     }
                     clName = cl.getNode().name;
                 }
-                classWrapper.getNode().interfaces.add(clName);
+                classWrapper.addInterface(clName);
             }
         }
 
@@ -196,9 +213,7 @@ public class PatchClass {
                 FieldWrapper fieldWrapper = scope.getField(classWrapper,
                     f.getIdent().getName(),
                     f.getDescRaw());
-                classWrapper.getNode().fields.remove(
-                    classWrapper.getFieldNode(fieldWrapper)
-                );
+                classWrapper.removeField(fieldWrapper);
             } else {
                 StringBuilder mappedDesc = new StringBuilder();
                 Type desc = f.getDesc();
@@ -220,8 +235,7 @@ public class PatchClass {
                     null, f.getValue());
                 FieldWrapper fieldWrapper = new FieldWrapper(classWrapper, node);
                 scope.putField(fieldWrapper, f.getIdent().getName(), f.getDescRaw());
-                classWrapper.getFields().add(fieldWrapper);
-                classWrapper.getNode().fields.add(node);
+                classWrapper.addField(fieldWrapper, node);
             }
         });
 
@@ -258,8 +272,7 @@ public class PatchClass {
                     methodWrapper.add(classWrapper);
                 }
                 scope.putMethod(methodWrapper, m.getIdent().getName(), m.getDescRaw());
-                classWrapper.getMethods().add(methodWrapper);
-                classWrapper.getNode().methods.add(node);
+                classWrapper.addMethod(methodWrapper, node);
             }
 
             MethodWrapper methodWrapper = scope.getMethod(classWrapper, m.getIdent().getName(), m.getDescRaw());
@@ -290,10 +303,10 @@ public class PatchClass {
             mappedDesc.append(")");
             updatedTypeString(classSet, scope, mappedDesc, pDesc.getReturnType());
 
-            final String finalPName = pName;
-            mw = Arrays.stream(classWrapper.getMethods(true))
-                .filter(m -> m.getName().equals(finalPName) && m.getDesc().equals(mappedDesc.toString()))
-                .findFirst().orElse(null);
+            mw = classWrapper.getDeclaredMethod(pName, mappedDesc.toString());
+            if (mw != null && mw.isHidden()) {
+                mw = null;
+            }
         } catch (IllegalStateException ignored) {
 
         }
@@ -420,49 +433,56 @@ public class PatchClass {
         try {
             for (PatchField f : fields) {
                 if (f.getMode() == Mode.ADD) continue;
+                if (!checkField(logger, scope, classSet, classWrapper, f)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            logger.unindent();
+        }
+    }
 
-                FieldWrapper fieldWrapper = scope.getField(classWrapper,
-                    f.getIdent().getName(),
-                    f.getDescRaw());
+    public boolean checkField(StateLogger logger, PatchScope scope, ClassSet classSet,
+                              ClassWrapper classWrapper, PatchField f) {
+        FieldWrapper fieldWrapper = scope.getField(classWrapper,
+            f.getIdent().getName(),
+            f.getDescRaw());
 
-                logger.println("- " + f.getIdent());
-                logger.println(" testing " + fieldWrapper.getName());
+        logger.println("- " + f.getIdent());
+        logger.println(" testing " + fieldWrapper.getName());
 
-                if (!f.getIdent().isWeak()
-                    && !fieldWrapper.getName().equals(f.getIdent().getName())) {
-                    logger.println("Name mis-match " + f.getIdent() + " != " + fieldWrapper.getName());
-                    return false;
-                }
+        if (!f.getIdent().isWeak()
+            && !fieldWrapper.getName().equals(f.getIdent().getName())) {
+            logger.println("Name mis-match " + f.getIdent() + " != " + fieldWrapper.getName());
+            return false;
+        }
 
-                Type patchDesc = f.getDesc();
-                Type desc = Type.getType(fieldWrapper.getDesc());
+        Type patchDesc = f.getDesc();
+        Type desc = Type.getType(fieldWrapper.getDesc());
 
-                if (!checkTypes(classSet, scope, patchDesc, desc)) {
-                    logger.println(StateLogger.typeMismatch(patchDesc, desc));
-                    return false;
-                }
+        if (!checkTypes(classSet, scope, patchDesc, desc)) {
+            logger.println(StateLogger.typeMismatch(patchDesc, desc));
+            return false;
+        }
 
-                FieldNode fieldNode = classWrapper.getFieldNode(fieldWrapper);
+        FieldNode fieldNode = classWrapper.getFieldNode(fieldWrapper);
 
-                if (((fieldNode.access & Opcodes.ACC_STATIC) == 0) == f.isStatic()) {
-                    logger.println(f.isStatic() ? "Required static" : "Required non-static");
-                    return false;
-                }
-                if (((fieldNode.access & Opcodes.ACC_PRIVATE) == 0) == f.isPrivate()) {
-                    logger.println(f.isPrivate() ? "Required private" : "Required non-private");
-                    return false;
-                }
+        if (((fieldNode.access & Opcodes.ACC_STATIC) == 0) == f.isStatic()) {
+            logger.println(f.isStatic() ? "Required static" : "Required non-static");
+            return false;
+        }
+        if (((fieldNode.access & Opcodes.ACC_PRIVATE) == 0) == f.isPrivate()) {
+            logger.println(f.isPrivate() ? "Required private" : "Required non-private");
+            return false;
+        }
 
-                if (!Objects.equals(fieldNode.value, f.getValue())) {
-                    logger.println(fieldNode.value + " != " + f.getValue());
-                    return false;
-                }
-                logger.println("ok");
-            }
-            return true;
-        } finally {
-            logger.unindent();
+        if (!Objects.equals(fieldNode.value, f.getValue())) {
+            logger.println(fieldNode.value + " != " + f.getValue());
+            return false;
         }
+        logger.println("ok");
+        return true;
     }
 
     public boolean checkMethods(StateLogger logger, PatchScope scope, ClassSet classSet) {
@@ -473,49 +493,56 @@ public class PatchClass {
         try {
             for (PatchMethod m : methods) {
                 if (m.getMode() == Mode.ADD) continue;
-
-                MethodWrapper methodWrapper = scope.getMethod(classWrapper,
-                    m.getIdent().getName(),
-                    m.getDescRaw());
-
-                logger.println("- " + m.getIdent() + m.getDescRaw());
-                logger.println(" testing " + methodWrapper.getName() + methodWrapper.getDesc());
-
-                if (!m.getIdent().isWeak()
-                    && !methodWrapper.getName().equals(m.getIdent().getName())) {
-                    logger.println("Name mis-match " + m.getIdent() + " != " + methodWrapper.getName());
+                if (!checkMethod(logger, scope, classSet, classWrapper, m)) {
                     return false;
                 }
+            }
+            return true;
+        } finally {
+            logger.unindent();
+        }
+    }
 
-                Type patchDesc = m.getDesc();
-                Type desc = Type.getMethodType(methodWrapper.getDesc());
+    public boolean checkMethod(StateLogger logger, PatchScope scope, ClassSet classSet,
+                               ClassWrapper classWrapper, PatchMethod m) {
+        MethodWrapper methodWrapper = scope.getMethod(classWrapper,
+            m.getIdent().getName(),
+            m.getDescRaw());
 
-                if (patchDesc.getArgumentTypes().length != desc.getArgumentTypes().length) {
-                    logger.println("Argument size mis-match " + patchDesc.getArgumentTypes().length
-                        + " != " + desc.getArgumentTypes().length);
-                    return false;
-                }
+        logger.println("- " + m.getIdent() + m.getDescRaw());
+        logger.println(" testing " + methodWrapper.getName() + methodWrapper.getDesc());
 
-                for (int i = 0; i < patchDesc.getArgumentTypes().length; i++) {
-                    Type pt = patchDesc.getArgumentTypes()[i];
-                    Type t = desc.getArgumentTypes()[i];
+        if (!m.getIdent().isWeak()
+            && !methodWrapper.getName().equals(m.getIdent().getName())) {
+            logger.println("Name mis-match " + m.getIdent() + " != " + methodWrapper.getName());
+            return false;
+        }
 
-                    if (!checkTypes(classSet, scope, pt, t)) {
-                        logger.println(StateLogger.typeMismatch(pt, t));
-                        return false;
-                    }
-                }
+        Type patchDesc = m.getDesc();
+        Type desc = Type.getMethodType(methodWrapper.getDesc());
 
-                if (!checkTypes(classSet, scope, patchDesc.getReturnType(), desc.getReturnType())) {
-                    logger.println(StateLogger.typeMismatch(patchDesc.getReturnType(), desc.getReturnType()));
-                    return false;
-                }
-                logger.println("ok");
+        if (patchDesc.getArgumentTypes().length != desc.getArgumentTypes().length) {
+            logger.println("Argument size mis-match " + patchDesc.getArgumentTypes().length
+                + " != " + desc.getArgumentTypes().length);
+            return false;
+        }
+
+        for (int i = 0; i < patchDesc.getArgumentTypes().length; i++) {
+            Type pt = patchDesc.getArgumentTypes()[i];
+            Type t = desc.getArgumentTypes()[i];
+
+            if (!checkTypes(classSet, scope, pt, t)) {
+                logger.println(StateLogger.typeMismatch(pt, t));
+                return false;
             }
-            return true;
-        } finally {
-            logger.unindent();
         }
+
+        if (!checkTypes(classSet, scope, patchDesc.getReturnType(), desc.getReturnType())) {
+            logger.println(StateLogger.typeMismatch(patchDesc.getReturnType(), desc.getReturnType()));
+            return false;
+        }
+        logger.println("ok");
+        return true;
     }
 
     public boolean checkMethodsInstructions(StateLogger logger, PatchScope scope, ClassSet classSet) {
@@ -550,24 +577,7 @@ public class PatchClass {
         }
 
         if (pt.getSort() == Type.OBJECT) {
-            Ident id = new Ident(pt.getInternalName());
-            String cls = id.getName();
-            if (!cls.equals("*")) {
-                if (scope != null || !id.isWeak()) {
-                    if (id.isWeak()) {
-                        ClassWrapper ptcls = scope.getClass(cls);
-                        if (ptcls == null) { // Assume true
-                            cls = t.getInternalName();
-                            scope.putClass(classSet.getClassWrapper(cls), cls);
-                            return true;
-                        }
-                        cls = ptcls.getNode().name;
-                    }
-                    if (!cls.equals(t.getInternalName())) {
-                        return false;
-                    }
-                }
-            }
+            return checkClass(classSet, scope, new Ident(pt.getInternalName()), t.getInternalName());
         } else if (pt.getSort() == Type.ARRAY) {
             return pt.getDimensions() == t.getDimensions()
                 && checkTypes(classSet, scope, pt.getElementType(), t.getElementType());
@@ -579,6 +589,41 @@ public class PatchClass {
         return true;
     }
 
+    // Same as above but without allocating, used while checking
+    // instructions
+    public static boolean checkTypes(ClassSet classSet, PatchScope scope, CompiledType pt, CompiledType t) {
+        if (pt.getSort() != t.getSort()
+            || pt.getDimensions() != t.getDimensions()
+            || pt.getElementSort() != t.getElementSort()) {
+            return false;
+        }
+        if (pt.getElementSort() == Type.OBJECT) {
+            return checkClass(classSet, scope, pt.getIdent(), t.getName());
+        }
+        return true;
+    }
+
+    private static boolean checkClass(ClassSet classSet, PatchScope scope, Ident id, String name) {
+        String cls = id.getName();
+        if (!cls.equals("*")) {
+            if (scope != null || !id.isWeak()) {
+                if (id.isWeak()) {
+                    ClassWrapper ptcls = scope.getClass(cls);
+                    if (ptcls == null) { // Assume true
+                        cls = name;
+                        scope.putClass(classSet.getClassWrapper(cls), cls);
+                        return true;
+                    }
+                    cls = ptcls.getNode().name;
+                }
+                if (!cls.equals(name)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     public List<ModifierClass> getExtends() {
         return superModifiers;
     }
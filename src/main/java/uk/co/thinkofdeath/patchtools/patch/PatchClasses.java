@@ -16,6 +16,7 @@
 
 package uk.co.thinkofdeath.patchtools.patch;
 
+import com.google.common.hash.HashCode;
 import org.jetbrains.annotations.Contract;
 
 import java.io.IOException;
@@ -25,6 +26,7 @@ import java.util.List;
 public class PatchClasses {
 
     private List<PatchClass> classes = new ArrayList<>();
+    private final HashCode hash;
 
     public PatchClasses(LineReader reader) throws IOException {
         String line;
@@ -44,6 +46,11 @@ public class PatchClasses {
                         .setLineNumber(reader.getLineNumber());
             }
         }
+        hash = reader.hash();
+    }
+
+    public HashCode getHash() {
+        return hash;
     }
 
     public List<PatchClass> getClasses() {
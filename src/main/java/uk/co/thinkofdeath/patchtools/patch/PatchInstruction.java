@@ -30,6 +30,7 @@ public class PatchInstruction {
     public Instruction instruction;
     public String[] params;
     public List<String> meta = new ArrayList<>();
+    private volatile Object compiled;
 
     public PatchInstruction(Command command, BufferedReader reader) throws IOException {
         mode = command.mode;
@@ -50,6 +51,20 @@ public class PatchInstruction {
         }
     }
 
+    public void compile() {
+        if (instruction.getHandler() != null) {
+            compiled = instruction.getHandler().compile(this);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T getCompiled() {
+        if (compiled == null) {
+            compile();
+        }
+        return (T) compiled;
+    }
+
     @Override
     public String toString() {
         return "PatchInstruction{" +
@@ -17,16 +17,17 @@
 package uk.co.thinkofdeath.patchtools.patch;
 
 import com.google.common.collect.Maps;
-import org.jetbrains.annotations.NotNull;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.*;
 import uk.co.thinkofdeath.patchtools.PatchScope;
 import uk.co.thinkofdeath.patchtools.instruction.Instruction;
+import uk.co.thinkofdeath.patchtools.instruction.InstructionHandler;
 import uk.co.thinkofdeath.patchtools.instruction.instructions.TryCatchInstruction;
 import uk.co.thinkofdeath.patchtools.instruction.instructions.Utils;
 import uk.co.thinkofdeath.patchtools.logging.StateLogger;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
+import uk.co.thinkofdeath.patchtools.wrappers.LazyMethodNode;
 
 import java.io.IOException;
 import java.util.*;
@@ -42,6 +43,8 @@ public class PatchMethod {
     private boolean isProtected;
 
     private List<PatchInstruction> instructions = new ArrayList<>();
+    private volatile OpcodeFilter opcodeFilter;
+    private volatile InstructionPattern pattern;
 
     public PatchMethod(PatchClass owner, Command mCommand, LineReader reader) throws IOException {
         this.owner = owner;
@@ -93,6 +96,7 @@ public class PatchMethod {
                 PatchInstruction insn = new PatchInstruction(command, reader);
                 if (insn.instruction.getHandler() != null) {
                     insn.instruction.getHandler().validate(insn);
+                    insn.compile();
                 }
                 instructions.add(insn);
             } catch (ValidateException e) {
@@ -139,6 +143,8 @@ public class PatchMethod {
     }
 
     public void apply(ClassSet classSet, PatchScope scope, MethodNode methodNode) {
+        LazyMethodNode.load(methodNode);
+        int access = methodNode.access;
         methodNode.access &= ~(Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE | Opcodes.ACC_PUBLIC);
         if (isStatic) {
             methodNode.access |= Opcodes.ACC_STATIC;
@@ -150,43 +156,33 @@ public class PatchMethod {
         } else {
             methodNode.access |= Opcodes.ACC_PUBLIC;
         }
-        InsnList insns = new InsnList();
-        LabelCloneMap cloneMap = new LabelCloneMap();
-        for (AbstractInsnNode insnNode : methodNode.instructions.toArray()) {
-            insns.add(insnNode.clone(cloneMap));
-        }
-
-        List<TryCatchBlockNode> trys = new ArrayList<>();
-        for (TryCatchBlockNode tryCatchBlockNode : methodNode.tryCatchBlocks) {
-            TryCatchBlockNode newTry = new TryCatchBlockNode(
-                cloneMap.get(tryCatchBlockNode.start),
-                cloneMap.get(tryCatchBlockNode.end),
-                cloneMap.get(tryCatchBlockNode.handler),
-                tryCatchBlockNode.type
-            );
-            trys.add(newTry);
-        }
-        methodNode.tryCatchBlocks = trys;
+        // The instructions are edited in place so the positions
+        // in the instruction map have to be resolved up front
+        InsnList insns = methodNode.instructions;
+        AbstractInsnNode[] nodes = insns.toArray();
 
         Map<PatchInstruction, Integer> insnMap = scope.getInstructMap(methodNode);
-        int position = 0;
-        int offset = 0;
+        // Added instructions go after this, null for the start
+        AbstractInsnNode last = null;
+        // Methods that are only matched against keep their
+        // original bytes
+        boolean changed = false;
 
         for (PatchInstruction patchInstruction : instructions) {
             if (patchInstruction.mode == Mode.ADD) {
+                changed = true;
                 if (patchInstruction.instruction == Instruction.TRY_CATCH) {
-                    TryCatchInstruction.create(classSet, scope, patchInstruction, methodNode, cloneMap);
+                    TryCatchInstruction.createBlock(classSet, scope, patchInstruction, methodNode);
                     continue;
                 }
                 AbstractInsnNode newIn = patchInstruction.instruction.getHandler()
                     .create(classSet, scope, patchInstruction, methodNode);
-                if (position - 1 >= 0) {
-                    insns.insert(insns.get(position - 1), newIn.clone(cloneMap));
+                if (last != null) {
+                    insns.insert(last, newIn);
                 } else {
-                    insns.insert(newIn.clone(cloneMap));
+                    insns.insert(newIn);
                 }
-                position++;
-                offset++;
+                last = newIn;
                 continue;
             }
 
@@ -194,6 +190,7 @@ public class PatchMethod {
                 if (patchInstruction.mode == Mode.REMOVE) {
                     TryCatchBlockNode match = TryCatchInstruction.match(classSet, scope, patchInstruction, methodNode);
                     methodNode.tryCatchBlocks.remove(match);
+                    changed = true;
                 }
                 continue;
             }
@@ -202,15 +199,22 @@ public class PatchMethod {
                 continue;
             }
 
-            int pos = insnMap.get(patchInstruction);
+            AbstractInsnNode insn = nodes[insnMap.get(patchInstruction)];
             if (patchInstruction.mode == Mode.REMOVE) {
-                insns.remove(insns.get(pos));
-                offset--;
+                last = insn.getPrevious();
+                insns.remove(insn);
+                changed = true;
+            } else {
+                last = insn;
             }
-            position = pos + offset + 1;
         }
 
-        methodNode.instructions = insns;
+        if (changed) {
+            MethodInstructions.invalidate(methodNode);
+        }
+        if (changed || methodNode.access != access) {
+            classSet.markDirty(methodNode);
+        }
     }
 
     public boolean check(StateLogger logger, ClassSet classSet, PatchScope scope, MethodNode methodNode) {
@@ -247,9 +251,6 @@ public class PatchMethod {
                 return false;
             }
 
-            int position = 0;
-            InsnList insns = methodNode.instructions;
-
             if (((methodNode.access & Opcodes.ACC_STATIC) == 0) == isStatic) {
                 logger.println(isStatic ? "Required static" : "Required non-static");
                 return false;
@@ -263,89 +264,55 @@ public class PatchMethod {
                 return false;
             }
 
-            boolean wildcard = false;
-            int wildcardPosition = -1;
-            int wildcardPatchPosition = -1;
+            MethodInstructions insns = MethodInstructions.of(methodNode);
+            if (!getOpcodeFilter().mayMatch(insns)) {
+                logger.println("Missing required opcodes");
+                return false;
+            }
 
             Map<PatchInstruction, Integer> insnMap = Maps.newHashMap();
+            AbstractInsnNode[] nodes = insns.getInstructions();
+            InstructionPattern pattern = getPattern();
 
             inInstructions = true;
             logger.indent();
 
-            check:
-            for (int i = 0; i < instructions.size(); i++) {
-                PatchInstruction patchInstruction = instructions.get(i);
-                if (patchInstruction.mode == Mode.ADD) continue;
-
-                if (patchInstruction.instruction == Instruction.ANY) {
-                    logger.println(i + ": Wild-card");
-                    wildcard = true;
-                    wildcardPosition = -1;
-                    wildcardPatchPosition = -1;
-                    if (i == instructions.size() - 1) {
-                        position = insns.size();
-                    }
-                    continue;
+            int position = 0;
+            for (int s = 0; s < pattern.segments.length; s++) {
+                Segment segment = pattern.segments[s];
+                boolean anchorStart = s == 0 && !pattern.anyStart;
+                boolean anchorEnd = s == pattern.segments.length - 1 && !pattern.anyEnd;
+                if (!anchorStart) {
+                    logger.println("Wild-card");
                 }
-                while (true) {
 
-                    if (position >= insns.size()) {
-                        if (!wildcard) {
-                            logger.println("Not enough instructions");
-                            return false;
-                        }
-                        break;
+                int end = -1;
+                for (int start = position; start < nodes.length || (anchorStart && start == position); start++) {
+                    if (!anchorStart && !segment.canStartAt(nodes[start])) continue;
+                    PatchScope segmentScope = scope == null ? null : new PatchScope(scope);
+                    Map<PatchInstruction, Integer> segmentMap = Maps.newHashMap();
+                    end = matchSegment(logger, classSet, segmentScope, methodNode, segment, insns, start, segmentMap);
+                    if (end != -1 && anchorEnd && !onlyTrailing(nodes, end)) {
+                        logger.println("Too many instructions");
+                        end = -1;
                     }
-                    AbstractInsnNode insn = insns.get(position);
-
-                    boolean allowLabel = insn instanceof LabelNode
-                        && (patchInstruction.instruction == Instruction.LABEL
-                        || patchInstruction.instruction == Instruction.TRY_CATCH);
-
-                    if (!(insn instanceof LineNumberNode) && !(insn instanceof FrameNode)
-                        && (!(insn instanceof LabelNode) || allowLabel)) {
-                        if (patchInstruction.instruction.getHandler()
-                            .check(classSet, scope, patchInstruction, methodNode, insn)) {
-                            logger.println(i + ": " + patchInstruction + " succeeded on " + insn);
-                            if (patchInstruction.instruction == Instruction.TRY_CATCH) continue check;
-                            if (wildcard) {
-                                wildcardPosition = position;
-                                wildcardPatchPosition = i;
-                                logger.println("(Saving wildcard state)");
-                            }
-                            insnMap.put(patchInstruction, position);
-                            wildcard = false;
-                            position++;
-                            continue check;
-                        } else {
-                            logger.println(i + ": " + patchInstruction + " failed on " + insn);
-                            if (!wildcard) {
-                                if (wildcardPosition != -1) {
-                                    logger.println("Failed");
-                                    wildcard = true;
-                                    position = ++wildcardPosition;
-                                    i = --wildcardPatchPosition;
-                                    logger.println("Rolling back to the last wildcard");
-                                    continue check;
-                                } else {
-                                    logger.println("Failed");
-                                    return false;
-                                }
-                            }
-                            logger.println("Continuing because of wild-card");
+                    if (end != -1) {
+                        if (scope != null) {
+                            scope.merge(segmentScope);
                         }
+                        insnMap.putAll(segmentMap);
+                        break;
                     }
-                    position++;
+                    if (anchorStart) break;
                 }
-                return false;
+                if (end == -1) {
+                    logger.println("Failed");
+                    return false;
+                }
+                position = end;
             }
 
-            for (; position < insns.size(); position++) {
-                AbstractInsnNode insn = insns.get(position);
-                if (insn instanceof LineNumberNode
-                    || insn instanceof LabelNode) {
-                    continue;
-                }
+            if (pattern.segments.length == 0 && !pattern.anyStart && !onlyTrailing(nodes, 0)) {
                 logger.println("Too many instructions");
                 return false;
             }
@@ -371,75 +338,218 @@ public class PatchMethod {
         }
     }
 
-    private class LabelCloneMap implements Map<LabelNode, LabelNode> {
-
-        private HashMap<LabelNode, LabelNode> internal = new HashMap<>();
-
-        @Override
-        public int size() {
-            return internal.size();
+    private OpcodeFilter getOpcodeFilter() {
+        if (opcodeFilter == null) {
+            opcodeFilter = new OpcodeFilter(instructions);
         }
+        return opcodeFilter;
+    }
 
-        @Override
-        public boolean isEmpty() {
-            return internal.isEmpty();
+    private InstructionPattern getPattern() {
+        if (pattern == null) {
+            pattern = new InstructionPattern(instructions);
         }
+        return pattern;
+    }
 
-        @Override
-        public boolean containsKey(Object key) {
-            return internal.containsKey(key);
-        }
+    // Matches the segment's instructions one after another starting
+    // at position, returning the position after the last matched
+    // instruction or -1 if the segment doesn't match there
+    private static int matchSegment(StateLogger logger, ClassSet classSet, PatchScope scope, MethodNode methodNode,
+                                    Segment segment, MethodInstructions insns, int position,
+                                    Map<PatchInstruction, Integer> insnMap) {
+        AbstractInsnNode[] nodes = insns.getInstructions();
+        for (int i = 0; i < segment.instructions.length; i++) {
+            PatchInstruction patchInstruction = segment.instructions[i];
+            int index = segment.indices[i];
+            InstructionHandler handler = patchInstruction.instruction.getHandler();
+
+            // Try-catch blocks aren't part of the instruction list
+            if (patchInstruction.instruction == Instruction.TRY_CATCH) {
+                if (!handler.check(classSet, scope, patchInstruction, methodNode, null)) {
+                    logger.println(index + ": " + patchInstruction + " failed");
+                    return -1;
+                }
+                logger.println(index + ": " + patchInstruction + " succeeded");
+                continue;
+            }
 
-        @Override
-        public boolean containsValue(Object value) {
-            return internal.containsValue(value);
+            boolean allowLabel = patchInstruction.instruction == Instruction.LABEL;
+            // Labels are only matched by label instructions
+            while (position < nodes.length && nodes[position] instanceof LabelNode && !allowLabel) {
+                position++;
+            }
+            if (position >= nodes.length) {
+                logger.println("Not enough instructions");
+                return -1;
+            }
+            AbstractInsnNode insn = nodes[position];
+            if (!handler.check(classSet, scope, patchInstruction, methodNode, insn)) {
+                logger.println(index + ": " + patchInstruction + " failed on " + insn);
+                return -1;
+            }
+            logger.println(index + ": " + patchInstruction + " succeeded on " + insn);
+            insnMap.put(patchInstruction, insns.getIndex(position));
+            position++;
         }
+        return position;
+    }
 
-        @Override
-        public LabelNode get(Object key) {
-            LabelNode k = (LabelNode) key;
-            if (!internal.containsKey(key)) {
-                internal.put(k, new LabelNode());
+    private static boolean onlyTrailing(AbstractInsnNode[] nodes, int position) {
+        for (; position < nodes.length; position++) {
+            if (!(nodes[position] instanceof LabelNode)) {
+                return false;
             }
-            return internal.get(key);
         }
+        return true;
+    }
 
-        @Override
-        public LabelNode put(LabelNode key, LabelNode value) {
-            return internal.put(key, value);
+    // The checked instructions split up at each wild-card. Unless
+    // there is a wild-card before it the first segment must match
+    // at the start of the method and unless there is one after it
+    // the last segment must match at the end. Segments in between
+    // are matched at the first place they fit after the previous
+    // segment, so extra wild-cards never cause backtracking
+    private static class InstructionPattern {
+
+        private final Segment[] segments;
+        private final boolean anyStart;
+        private final boolean anyEnd;
+
+        InstructionPattern(List<PatchInstruction> instructions) {
+            List<Segment> segs = new ArrayList<>();
+            List<PatchInstruction> current = new ArrayList<>();
+            List<Integer> indices = new ArrayList<>();
+            boolean anyStart = false;
+            boolean anyEnd = false;
+            for (int i = 0; i < instructions.size(); i++) {
+                PatchInstruction instruction = instructions.get(i);
+                if (instruction.mode == Mode.ADD) continue;
+                if (instruction.instruction == Instruction.ANY) {
+                    if (segs.isEmpty() && current.isEmpty()) {
+                        anyStart = true;
+                    }
+                    if (!current.isEmpty()) {
+                        segs.add(new Segment(current, indices));
+                        current.clear();
+                        indices.clear();
+                    }
+                    anyEnd = true;
+                    continue;
+                }
+                current.add(instruction);
+                indices.add(i);
+                anyEnd = false;
+            }
+            if (!current.isEmpty()) {
+                segs.add(new Segment(current, indices));
+            }
+            segments = segs.toArray(new Segment[segs.size()]);
+            this.anyStart = anyStart;
+            this.anyEnd = anyEnd;
         }
+    }
 
-        @Override
-        public LabelNode remove(Object key) {
-            return internal.remove(key);
-        }
+    private static class Segment {
 
-        @Override
-        public void putAll(Map<? extends LabelNode, ? extends LabelNode> m) {
-            internal.putAll(m);
-        }
+        private final PatchInstruction[] instructions;
+        private final int[] indices;
+        // Opcodes the first instruction can match, null if unknown
+        private final boolean[] firstOpcodes;
+        private final boolean labelFirst;
+
+        Segment(List<PatchInstruction> instructions, List<Integer> indices) {
+            this.instructions = instructions.toArray(new PatchInstruction[instructions.size()]);
+            this.indices = new int[indices.size()];
+            for (int i = 0; i < this.indices.length; i++) {
+                this.indices[i] = indices.get(i);
+            }
 
-        @Override
-        public void clear() {
-            internal.clear();
+            PatchInstruction first = this.instructions[0];
+            labelFirst = first.instruction == Instruction.LABEL
+                || first.instruction == Instruction.TRY_CATCH;
+            int[] opcodes = labelFirst ? null : first.instruction.getHandler().getOpcodes(first);
+            if (opcodes != null) {
+                firstOpcodes = new boolean[256];
+                for (int opcode : opcodes) {
+                    firstOpcodes[opcode] = true;
+                }
+            } else {
+                firstOpcodes = null;
+            }
         }
 
-        @NotNull
-        @Override
-        public Set<LabelNode> keySet() {
-            return internal.keySet();
+        // Whether it is worth trying to match the segment from
+        // this instruction
+        boolean canStartAt(AbstractInsnNode insn) {
+            if (insn instanceof LabelNode) {
+                return labelFirst;
+            }
+            return firstOpcodes == null || firstOpcodes[insn.getOpcode()];
         }
+    }
 
-        @NotNull
-        @Override
-        public Collection<LabelNode> values() {
-            return internal.values();
+    // A quick test that rules out methods which don't have the
+    // opcodes the instructions need in the order they need them
+    private static class OpcodeFilter {
+
+        private final int[] required;
+        private final int[] requiredCounts;
+        private final boolean[][] sequence;
+
+        OpcodeFilter(List<PatchInstruction> instructions) {
+            int[] counts = new int[256];
+            List<boolean[]> seq = new ArrayList<>();
+            for (PatchInstruction instruction : instructions) {
+                if (instruction.mode == Mode.ADD || instruction.instruction.getHandler() == null) continue;
+                int[] opcodes = instruction.instruction.getHandler().getOpcodes(instruction);
+                if (opcodes == null) continue;
+                boolean[] mask = new boolean[256];
+                for (int opcode : opcodes) {
+                    mask[opcode] = true;
+                }
+                seq.add(mask);
+                if (opcodes.length == 1) {
+                    counts[opcodes[0]]++;
+                }
+            }
+            sequence = seq.toArray(new boolean[seq.size()][]);
+
+            int size = 0;
+            for (int count : counts) {
+                if (count > 0) size++;
+            }
+            required = new int[size];
+            requiredCounts = new int[size];
+            size = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    required[size] = i;
+                    requiredCounts[size++] = counts[i];
+                }
+            }
         }
 
-        @NotNull
-        @Override
-        public Set<Entry<LabelNode, LabelNode>> entrySet() {
-            return internal.entrySet();
+        boolean mayMatch(MethodInstructions insns) {
+            for (int i = 0; i < required.length; i++) {
+                if (insns.count(required[i]) < requiredCounts[i]) {
+                    return false;
+                }
+            }
+            // Matched instructions always come after the previous
+            // match so the opcodes must appear in the same order
+            int[] opcodes = insns.getOpcodes();
+            int position = 0;
+            for (boolean[] mask : sequence) {
+                while (position < opcodes.length && !mask[opcodes[position]]) {
+                    position++;
+                }
+                if (position == opcodes.length) {
+                    return false;
+                }
+                position++;
+            }
+            return true;
         }
     }
 }
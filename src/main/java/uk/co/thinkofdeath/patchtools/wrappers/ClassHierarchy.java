@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.patchtools.wrappers;
+
+import org.objectweb.asm.Opcodes;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Super class chains and common super classes of the classes in
+// a class set. Everything is remembered until a class in the set
+// changes
+class ClassHierarchy {
+
+    private static final String OBJECT = "java/lang/Object";
+
+    private final ClassSet classSet;
+    // The super classes of a class starting from the root
+    // and ending with the class itself
+    private final Map<String, String[]> ancestors = new ConcurrentHashMap<>();
+    // Every class and interface a class can be assigned to
+    private final Map<String, Set<String>> supertypes = new ConcurrentHashMap<>();
+    private final Map<String, String> commonSuperClasses = new ConcurrentHashMap<>();
+    private volatile int version;
+
+    ClassHierarchy(ClassSet classSet) {
+        this.classSet = classSet;
+        version = classSet.getMemberVersion();
+    }
+
+    private void checkVersion() {
+        int current = classSet.getMemberVersion();
+        if (current != version) {
+            ancestors.clear();
+            supertypes.clear();
+            commonSuperClasses.clear();
+            version = current;
+        }
+    }
+
+    // Same rules as ClassWriter.getCommonSuperClass
+    String getCommonSuperClass(String type1, String type2) {
+        if (type1.equals(type2)) {
+            return type1;
+        }
+        checkVersion();
+        String key = type1 + ";" + type2;
+        String common = commonSuperClasses.get(key);
+        if (common == null) {
+            common = computeCommonSuperClass(type1, type2);
+            commonSuperClasses.put(key, common);
+        }
+        return common;
+    }
+
+    private String computeCommonSuperClass(String type1, String type2) {
+        ClassWrapper t1 = classSet.getClassWrapper(type1);
+        ClassWrapper t2 = classSet.getClassWrapper(type2);
+        if (t1 == null || t2 == null) {
+            return OBJECT;
+        }
+
+        boolean interface1 = (t1.getNode().access & Opcodes.ACC_INTERFACE) != 0;
+        boolean interface2 = (t2.getNode().access & Opcodes.ACC_INTERFACE) != 0;
+        if (interface1 || interface2) {
+            if (interface1 && getSupertypes(type2).contains(type1)) {
+                return type1;
+            }
+            if (interface2 && getSupertypes(type1).contains(type2)) {
+                return type2;
+            }
+            return OBJECT;
+        }
+
+        String[] a1 = getAncestors(type1);
+        String[] a2 = getAncestors(type2);
+        String common = OBJECT;
+        for (int i = 0; i < a1.length && i < a2.length; i++) {
+            if (!a1[i].equals(a2[i])) {
+                break;
+            }
+            common = a1[i];
+        }
+        return common;
+    }
+
+    String[] getAncestors(String name) {
+        checkVersion();
+        String[] result = ancestors.get(name);
+        if (result != null) {
+            return result;
+        }
+
+        // Walk up until a class that is already known
+        List<String> chain = new ArrayList<>();
+        String[] base = new String[0];
+        for (String current = name; current != null; ) {
+            String[] known = ancestors.get(current);
+            if (known != null) {
+                base = known;
+                break;
+            }
+            ClassWrapper cls = classSet.getClassWrapper(current);
+            if (cls == null || chain.contains(current)) {
+                break;
+            }
+            chain.add(current);
+            current = cls.getNode().superName;
+        }
+
+        result = base;
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            String[] next = Arrays.copyOf(result, result.length + 1);
+            next[result.length] = chain.get(i);
+            ancestors.putIfAbsent(chain.get(i), next);
+            result = next;
+        }
+        return result;
+    }
+
+    Set<String> getSupertypes(String name) {
+        checkVersion();
+        Set<String> result = supertypes.get(name);
+        if (result != null) {
+            return result;
+        }
+
+        result = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(name);
+        while (!queue.isEmpty()) {
+            String current = queue.poll();
+            if (!result.add(current)) continue;
+            Set<String> known = current.equals(name) ? null : supertypes.get(current);
+            if (known != null) {
+                result.addAll(known);
+                continue;
+            }
+            ClassWrapper cls = classSet.getClassWrapper(current);
+            if (cls == null) continue;
+            if (cls.getNode().superName != null) {
+                queue.add(cls.getNode().superName);
+            }
+            queue.addAll(cls.getNode().interfaces);
+        }
+        supertypes.putIfAbsent(name, result);
+        return result;
+    }
+}
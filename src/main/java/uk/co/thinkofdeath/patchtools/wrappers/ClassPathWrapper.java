@@ -18,16 +18,24 @@ package uk.co.thinkofdeath.patchtools.wrappers;
 
 import com.google.common.io.ByteStreams;
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
 
 import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 public class ClassPathWrapper implements Closeable {
 
     private final ZipFile[] searchFiles;
+    // Class name to the first zip that contains it, built
+    // once so a lookup doesn't have to try every zip
+    private final Map<String, LibraryEntry> index = new HashMap<>();
+    // Classes that couldn't be found anywhere
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
 
     public ClassPathWrapper(File... libs) {
         try {
@@ -38,28 +46,39 @@ public class ClassPathWrapper implements Closeable {
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
+        for (ZipFile zip : searchFiles) {
+            zip.stream()
+                .filter(e -> e.getName().endsWith(".class"))
+                .forEach(e -> {
+                    String name = e.getName().substring(0, e.getName().length() - ".class".length());
+                    index.putIfAbsent(name, new LibraryEntry(zip, e));
+                });
+        }
     }
 
     public ClassWrapper find(ClassSet classSet, String clazz) {
+        if (missing.contains(clazz)) {
+            return null;
+        }
         try {
-            InputStream in = null;
-            for (ZipFile zip : searchFiles) {
-                ZipEntry entry = zip.getEntry(clazz + ".class");
-                if (entry == null) continue;
-                in = zip.getInputStream(entry);
-                break;
-            }
-            if (in == null) {
+            InputStream in;
+            LibraryEntry entry = index.get(clazz);
+            if (entry != null) {
+                in = entry.zip.getInputStream(entry.entry);
+            } else {
                 in = getClass().getResourceAsStream("/" + clazz + ".class");
                 if (in == null) {
+                    missing.add(clazz);
                     return null;
                 }
             }
             try (InputStream ignored = in) {
                 byte[] data = ByteStreams.toByteArray(in);
-                ClassNode node = new ClassNode(Opcodes.ASM5);
+                ClassNode node = new LazyMethodNode.SkeletonNode(data);
                 ClassReader reader = new ClassReader(data);
-                reader.accept(node, 0);
+                // Library classes are never written and their code
+                // is rarely looked at so only read it when needed
+                reader.accept(node, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
                 return new ClassWrapper(classSet, node, true);
             }
         } catch (IOException e) {
@@ -74,4 +93,14 @@ public class ClassPathWrapper implements Closeable {
             zip.close();
         }
     }
+
+    private static class LibraryEntry {
+        private final ZipFile zip;
+        private final ZipEntry entry;
+
+        LibraryEntry(ZipFile zip, ZipEntry entry) {
+            this.zip = zip;
+            this.entry = entry;
+        }
+    }
 }
@@ -16,11 +16,13 @@
 
 package uk.co.thinkofdeath.patchtools.wrappers;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.MapMaker;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.*;
 import org.objectweb.asm.commons.Remapper;
 import org.objectweb.asm.commons.RemappingClassAdapter;
 import org.objectweb.asm.tree.ClassNode;
@@ -32,18 +34,55 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ClassSet implements Iterable<String> {
 
-    private final Map<String, ClassWrapper> classes = new HashMap<>();
+    private static final int LIBRARY_CACHE_SIZE = 4096;
+
+    private final Map<String, ClassWrapper> classes = new ConcurrentHashMap<>();
     private final ClassPathWrapper classPath;
 
+    // Library classes loaded before and during simplify are kept
+    // in classes since simplify links their members to ours.
+    // Later ones are only kept while they are recently used or
+    // still referenced, the weak map makes sure there is only
+    // one instance of a class at a time
+    private final Cache<String, ClassWrapper> libraryCache = CacheBuilder.newBuilder()
+        .maximumSize(LIBRARY_CACHE_SIZE)
+        .build();
+    private final ConcurrentMap<String, ClassWrapper> libraryClasses = new MapMaker()
+        .weakValues()
+        .makeMap();
+    private volatile boolean pinLibraries = true;
+
+    private final AtomicInteger memberVersion = new AtomicInteger();
+    private final ClassHierarchy hierarchy = new ClassHierarchy(this);
+    private final NodeIds ids = new NodeIds();
+
+    // Shapes of the non-hidden classes, rebuilt after any class
+    // in the set changes
+    private Map<String, ClassShape> shapes;
+    private int shapesVersion;
+
+    // Methods whose code or flags were changed by a patch
+    private final Set<MethodNode> dirtyMethods = ConcurrentHashMap.newKeySet();
+
     private boolean simplified;
+    private boolean lazy;
 
     public ClassSet(ClassPathWrapper wrapper) {
         classPath = wrapper;
     }
 
+    // When lazy the code of methods added from bytes is only
+    // read when it is first used
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
     public void simplify() {
         if (simplified) return;
         simplified = true;
@@ -70,6 +109,7 @@ public class ClassSet implements Iterable<String> {
         new ArrayList<>(classes.values()).stream()
             .filter(v -> !v.isHidden())
             .forEach(v -> grab(v, v));
+        pinLibraries = false;
     }
 
     private void grab(ClassWrapper root, ClassWrapper current) {
@@ -105,23 +145,20 @@ public class ClassSet implements Iterable<String> {
         if (cl == null) {
             return;
         }
-        final ClassWrapper finalCl = cl;
-        MethodWrapper target = cl.getMethods().stream()
-            .filter(m -> m.getName().equals(methodWrapper.getName())
-                && m.getDesc().equals(methodWrapper.getDesc()))
-            .filter(m -> {
-                MethodNode node = finalCl.getMethodNode(m);
-                return (((node.access & Opcodes.ACC_PUBLIC) != 0
-                    || (node.access & Opcodes.ACC_PROTECTED) != 0))
-                    && (node.access & Opcodes.ACC_STATIC) == 0;
-            })
-            .findFirst().orElse(null);
+        MethodWrapper target = cl.getDeclaredMethod(methodWrapper.getName(), methodWrapper.getDesc());
+        if (target != null) {
+            MethodNode node = cl.getMethodNode(target);
+            if (((node.access & Opcodes.ACC_PUBLIC) == 0
+                && (node.access & Opcodes.ACC_PROTECTED) == 0)
+                || (node.access & Opcodes.ACC_STATIC) != 0) {
+                target = null;
+            }
+        }
         if (target != null) {
             if (target.isHidden()) {
                 methodWrapper.hidden = true;
             }
-            cl.getMethods().remove(target);
-            cl.getMethods().add(methodWrapper);
+            cl.replaceMethod(target, methodWrapper);
             methodWrapper.add(target);
         }
         for (String inter : cl.getNode().interfaces) {
@@ -149,56 +186,216 @@ public class ClassSet implements Iterable<String> {
 
     public void add(byte[] clazz) {
         ClassReader classReader = new ClassReader(clazz);
-        ClassNode node = new ClassNode(Opcodes.ASM5);
-        classReader.accept(node, 0);
-        add(node);
+        ClassNode node;
+        if (lazy) {
+            node = new LazyMethodNode.SkeletonNode(clazz);
+            classReader.accept(node, ClassReader.SKIP_CODE);
+        } else {
+            node = new ClassNode(Opcodes.ASM5);
+            classReader.accept(node, 0);
+        }
+        ClassWrapper wrapper = new ClassWrapper(this, node);
+        wrapper.setFingerprint(Hashing.sha1().hashBytes(clazz).toString());
+        wrapper.setOriginal(clazz);
+        add(wrapper);
     }
 
     public void add(ClassNode node) {
-        classes.put(node.name, new ClassWrapper(this, node));
+        add(new ClassWrapper(this, node));
+    }
+
+    private void add(ClassWrapper wrapper) {
+        classes.put(wrapper.getNode().name, wrapper);
+        membersChanged();
     }
 
     public void remove(String name) {
         classes.remove(name);
+        membersChanged();
+    }
+
+    int getMemberVersion() {
+        return memberVersion.get();
+    }
+
+    void membersChanged() {
+        memberVersion.incrementAndGet();
+    }
+
+    public void markDirty(MethodNode node) {
+        dirtyMethods.add(node);
+    }
+
+    public boolean isDirty(ClassWrapper wrapper) {
+        if (wrapper.isDirty() || wrapper.getOriginal() == null) {
+            return true;
+        }
+        for (MethodNode node : wrapper.getNode().methods) {
+            if (dirtyMethods.contains(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public NodeIds getIds() {
+        return ids;
+    }
+
+    // The non-hidden classes that have room for everything
+    // the required shape asks for
+    public List<ClassWrapper> findClasses(ClassShape required) {
+        Map<String, ClassShape> shapes = getShapes();
+        List<ClassWrapper> found = new ArrayList<>();
+        for (String name : classes(true)) {
+            ClassShape shape = shapes.get(name);
+            if (shape != null && shape.canHost(required)) {
+                found.add(classes.get(name));
+            }
+        }
+        return found;
+    }
+
+    private synchronized Map<String, ClassShape> getShapes() {
+        int version = getMemberVersion();
+        if (shapes == null || shapesVersion != version) {
+            Map<String, ClassShape> shapes = new HashMap<>();
+            for (String name : classes(true)) {
+                ClassWrapper wrapper = classes.get(name);
+                if (wrapper == null) continue;
+                shapes.put(name, new ClassShape(wrapper.getNode(), superDepth(wrapper)));
+            }
+            this.shapes = shapes;
+            shapesVersion = version;
+        }
+        return shapes;
+    }
+
+    // The number of super classes that are non-hidden
+    // classes of this set
+    private int superDepth(ClassWrapper wrapper) {
+        int depth = 0;
+        Set<String> seen = new HashSet<>();
+        String name = wrapper.getNode().superName;
+        while (name != null && seen.add(name)) {
+            ClassWrapper cl = classes.get(name);
+            if (cl == null || cl.isHidden()) {
+                break;
+            }
+            depth++;
+            name = cl.getNode().superName;
+        }
+        return depth;
+    }
+
+    public String getCommonSuperClass(String type1, String type2) {
+        return hierarchy.getCommonSuperClass(type1, type2);
     }
 
     public byte[] getClass(String name) {
-        ClassSetWriter classWriter = new ClassSetWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
         ClassWrapper wrapper = classes.get(name);
         if (wrapper == null || wrapper.isHidden()) {
             return null;
         }
+        if (!isDirty(wrapper)) {
+            return wrapper.getOriginal();
+        }
+        byte[] original = wrapper.getOriginal();
+        // Classes from before 1.7 may not have frames for the
+        // unchanged methods so everything has to be computed.
+        // The same goes for a new super class or interfaces, the
+        // old frames may rely on types this class no longer is
+        ClassReader classReader = original == null ? null : new ClassReader(original);
+        if (classReader != null && classReader.readUnsignedShort(6) >= Opcodes.V1_7
+            && Objects.equals(classReader.getSuperName(), wrapper.getNode().superName)
+            && Arrays.asList(classReader.getInterfaces()).equals(wrapper.getNode().interfaces)) {
+            ClassSetWriter classWriter = new ClassSetWriter(classReader,
+                ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+            classReader.accept(new ModifiedClassAdapter(classWriter, wrapper.getNode()), 0);
+            return classWriter.toByteArray();
+        }
+        ClassSetWriter classWriter = new ClassSetWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
         wrapper.getNode().version = Opcodes.V1_8;
+        LazyMethodNode.load(wrapper.getNode());
         wrapper.getNode().accept(classWriter);
         return classWriter.toByteArray();
     }
 
     public byte[] getClass(String name, PatchScope scope) {
-        ClassReader classReader = new ClassReader(getClass(name));
-        ClassSetWriter classWriter = new ClassSetWriter(0);
         ClassWrapper wrapper = classes.get(name);
         if (wrapper == null || wrapper.isHidden()) {
             return null;
         }
-        classReader.accept(new RemappingClassAdapter(classWriter, new ClassRemapper(scope)), ClassReader.EXPAND_FRAMES);
+        ClassRemapper remapper = new ClassRemapper(scope);
+        // Untouched classes keep their frames, the remapper
+        // needs them expanded
+        if (!isDirty(wrapper)) {
+            ClassWriter classWriter = new ClassWriter(0);
+            new ClassReader(wrapper.getOriginal())
+                .accept(new RemappingClassAdapter(classWriter, remapper), ClassReader.EXPAND_FRAMES);
+            return classWriter.toByteArray();
+        }
+        // Otherwise the frames are computed after remapping
+        ClassNode node = wrapper.getNode();
+        node.version = Opcodes.V1_8;
+        LazyMethodNode.load(node);
+        RemappedClassWriter classWriter = new RemappedClassWriter(scope, remapper);
+        node.accept(new FrameStripper(new RemappingClassAdapter(classWriter, remapper)));
         return classWriter.toByteArray();
     }
 
     public ClassWrapper getClassWrapper(String name) {
+        if (name == null) return null;
         ClassWrapper cl = classes.get(name);
         if (cl == null) {
+            if (!pinLibraries) {
+                return getLibraryClass(name);
+            }
             cl = classPath.find(this, name);
             if (cl == null) return null;
-            classes.put(cl.getNode().name, cl);
+            // Another thread may have loaded it at the same time,
+            // only one instance can be used
+            ClassWrapper other = classes.putIfAbsent(cl.getNode().name, cl);
+            if (other != null) {
+                cl = other;
+            }
         }
         return cl;
     }
 
+    private ClassWrapper getLibraryClass(String name) {
+        ClassWrapper cl = libraryCache.getIfPresent(name);
+        if (cl != null) return cl;
+        cl = libraryClasses.get(name);
+        if (cl == null) {
+            cl = classPath.find(this, name);
+            if (cl == null) return null;
+            ClassWrapper other = libraryClasses.putIfAbsent(name, cl);
+            if (other != null) {
+                cl = other;
+            }
+        }
+        libraryCache.put(name, cl);
+        return cl;
+    }
+
+    // Real class name to the hash of the bytes it was loaded
+    // from, for classes that were loaded from bytes
+    public Map<String, String> getFingerprints() {
+        Map<String, String> fingerprints = new HashMap<>();
+        classes.forEach((name, cls) -> {
+            if (cls.getFingerprint() != null) {
+                fingerprints.put(name, cls.getFingerprint());
+            }
+        });
+        return fingerprints;
+    }
+
     public String[] classes() {
         return classes.keySet().toArray(new String[classes.keySet().size()]);
     }
 
-    private String[] hiddenStrippedCache;
+    private volatile String[] hiddenStrippedCache;
 
     public String[] classes(boolean stripHidden) {
         if (!stripHidden) {
@@ -218,59 +415,113 @@ public class ClassSet implements Iterable<String> {
         return classes.keySet().iterator();
     }
 
+    // Writes the class from the bytes it was loaded from but with the
+    // current header, fields and patched methods of its node. The
+    // writer copies the other methods as they are, including their
+    // frames, so only the patched ones have their frames computed
+    private class ModifiedClassAdapter extends ClassVisitor {
+
+        private final ClassNode node;
+        private final Map<String, MethodNode> methods = new LinkedHashMap<>();
+        private final Map<String, FieldNode> fields = new LinkedHashMap<>();
+
+        public ModifiedClassAdapter(ClassVisitor cv, ClassNode node) {
+            super(Opcodes.ASM5, cv);
+            this.node = node;
+            node.methods.forEach(m -> methods.put(m.desc + m.name, m));
+            node.fields.forEach(f -> fields.put(f.desc + f.name, f));
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            super.visit(Opcodes.V1_8, node.access, node.name, node.signature, node.superName,
+                node.interfaces.toArray(new String[node.interfaces.size()]));
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+            FieldNode field = fields.remove(desc + name);
+            if (field != null) {
+                field.accept(cv);
+            }
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            MethodNode method = methods.remove(desc + name);
+            if (method == null) {
+                return null;
+            }
+            if (dirtyMethods.contains(method)) {
+                method.accept(cv);
+                return null;
+            }
+            return super.visitMethod(access, name, desc, signature, exceptions);
+        }
+
+        @Override
+        public void visitEnd() {
+            // Added by patches
+            fields.values().forEach(f -> f.accept(cv));
+            methods.values().forEach(m -> m.accept(cv));
+            super.visitEnd();
+        }
+    }
+
     private class ClassSetWriter extends ClassWriter {
 
         public ClassSetWriter(int flags) {
             super(flags);
         }
 
+        public ClassSetWriter(ClassReader classReader, int flags) {
+            super(classReader, flags);
+        }
+
         @Override
         protected String getCommonSuperClass(String type1, String type2) {
-            if (type1.equals(type2)) {
-                return type1;
-            }
+            return hierarchy.getCommonSuperClass(type1, type2);
+        }
+    }
 
-            HashSet<String> supers = new HashSet<>();
-            supers.add(type1);
-            supers.add(type2);
+    // Finds common super classes using the real names of the
+    // remapped classes
+    private class RemappedClassWriter extends ClassWriter {
 
-            boolean run1 = true;
-            boolean run2 = true;
-            ClassWrapper t1 = getClassWrapper(type1);
-            ClassWrapper t2 = getClassWrapper(type2);
+        private final PatchScope scope;
+        private final Remapper remapper;
 
-            if (t1 == null || t2 == null) {
-                return "java/lang/Object";
-            }
+        public RemappedClassWriter(PatchScope scope, Remapper remapper) {
+            super(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+            this.scope = scope;
+            this.remapper = remapper;
+        }
 
-            if ((t1.getNode().access & Opcodes.ACC_INTERFACE) != 0
-                || (t2.getNode().access & Opcodes.ACC_INTERFACE) != 0) {
-                return "java/lang/Object";
-            }
+        @Override
+        protected String getCommonSuperClass(String type1, String type2) {
+            return remapper.map(hierarchy.getCommonSuperClass(unmap(type1), unmap(type2)));
+        }
 
-            while (run1 || run2) {
-                if (run1) {
-                    if (t1 == null || t1.getNode().superName == null) {
-                        run1 = false;
-                    } else {
-                        t1 = getClassWrapper(t1.getNode().superName);
-                        if (t1 != null && !supers.add(t1.getNode().name)) {
-                            return t1.getNode().name;
-                        }
-                    }
-                }
-                if (run2) {
-                    if (t2 == null || t2.getNode().superName == null) {
-                        run2 = false;
-                    } else {
-                        t2 = getClassWrapper(t2.getNode().superName);
-                        if (t2 != null && !supers.add(t2.getNode().name)) {
-                            return t2.getNode().name;
-                        }
-                    }
+        private String unmap(String type) {
+            ClassWrapper cls = scope.getClass(type);
+            return cls == null ? type : cls.getNode().name;
+        }
+    }
+
+    private static class FrameStripper extends ClassVisitor {
+
+        public FrameStripper(ClassVisitor cv) {
+            super(Opcodes.ASM5, cv);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            return new MethodVisitor(Opcodes.ASM5, super.visitMethod(access, name, desc, signature, exceptions)) {
+                @Override
+                public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
                 }
-            }
-            return "java/lang/Object";
+            };
         }
     }
 
@@ -297,7 +548,7 @@ public class ClassSet implements Iterable<String> {
             if (cls != null) {
                 MethodWrapper methodWrapper = cls.getMethod(name, desc);
                 String nName = scope.getMethod(methodWrapper);
-                return nName == null ? name : nName.split("\\(")[0];
+                return nName == null ? name : nName.substring(0, nName.indexOf('('));
             }
             return name;
         }
@@ -308,7 +559,7 @@ public class ClassSet implements Iterable<String> {
             if (cls != null) {
                 FieldWrapper fieldWrapper = cls.getField(name, desc);
                 String nName = scope.getField(fieldWrapper);
-                return nName == null ? name : nName.split("::")[0];
+                return nName == null ? name : nName.substring(0, nName.indexOf("::"));
             }
             return name;
         }
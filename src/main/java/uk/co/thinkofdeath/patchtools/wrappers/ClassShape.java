@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.patchtools.wrappers;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+
+// The parts of a class that matching can test without knowing
+// any names: the kind of class, how many interfaces and super
+// classes it has and the type sorts and flags of its members.
+// Used both for the classes in a set and for what a patch class
+// requires from the class it is matched to
+public class ClassShape {
+
+    private static final int FIELD_FLAGS = 4;
+
+    private final int access;
+    private final int interfaces;
+    private final int superDepth;
+    // Counted by type sort and flags
+    private final int[] fields = new int[(Type.OBJECT + 1) * FIELD_FLAGS];
+    // Counted by flags, return sort and argument sorts
+    private final TObjectIntMap<String> methods = new TObjectIntHashMap<>();
+
+    public ClassShape(int access, int interfaces, int superDepth) {
+        this.access = access;
+        this.interfaces = interfaces;
+        this.superDepth = superDepth;
+    }
+
+    ClassShape(ClassNode node, int superDepth) {
+        this(node.access, node.interfaces.size(), superDepth);
+        node.fields.forEach(f -> addField(Type.getType(f.desc).getSort(),
+            (f.access & Opcodes.ACC_STATIC) != 0,
+            (f.access & Opcodes.ACC_PRIVATE) != 0));
+        node.methods.forEach(m -> addMethod(Type.getMethodType(m.desc),
+            (m.access & Opcodes.ACC_STATIC) != 0,
+            (m.access & Opcodes.ACC_PRIVATE) != 0,
+            (m.access & Opcodes.ACC_PROTECTED) != 0));
+    }
+
+    public void addField(int sort, boolean isStatic, boolean isPrivate) {
+        fields[sort * FIELD_FLAGS + (isStatic ? 2 : 0) + (isPrivate ? 1 : 0)]++;
+    }
+
+    public void addMethod(Type desc, boolean isStatic, boolean isPrivate, boolean isProtected) {
+        Type[] args = desc.getArgumentTypes();
+        char[] key = new char[args.length + 2];
+        key[0] = (char) ((isStatic ? 4 : 0) | (isPrivate ? 2 : 0) | (isProtected ? 1 : 0));
+        key[1] = (char) desc.getReturnType().getSort();
+        for (int i = 0; i < args.length; i++) {
+            key[i + 2] = (char) args[i].getSort();
+        }
+        methods.adjustOrPutValue(new String(key), 1, 1);
+    }
+
+    // Whether a class with this shape has everything the
+    // required shape asks for. Two members of the patch can't
+    // be matched to the same member so they are counted
+    public boolean canHost(ClassShape required) {
+        if ((access & required.access) != required.access
+            || interfaces < required.interfaces
+            || superDepth < required.superDepth) {
+            return false;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] < required.fields[i]) {
+                return false;
+            }
+        }
+        return required.methods.forEachEntry((key, count) -> methods.get(key) >= count);
+    }
+}
@@ -21,7 +21,10 @@ import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.MethodNode;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ClassWrapper {
 
@@ -31,6 +34,28 @@ public class ClassWrapper {
     private final List<MethodWrapper> methods = new ArrayList<>();
     private final List<FieldWrapper> fields = new ArrayList<>();
 
+    // Members of this class keyed by name and descriptor
+    private final Map<String, MethodWrapper> methodIndex = new HashMap<>();
+    private final Map<String, MethodNode> methodNodeIndex = new HashMap<>();
+    private final Map<String, FieldWrapper> fieldIndex = new HashMap<>();
+    private final Map<String, FieldNode> fieldNodeIndex = new HashMap<>();
+
+    // Members found in super classes. These are thrown away
+    // whenever a member of any class in the set changes
+    private final Map<String, MethodWrapper> resolvedMethods = new ConcurrentHashMap<>();
+    private final Map<String, MethodNode> resolvedMethodNodes = new ConcurrentHashMap<>();
+    private final Map<String, FieldWrapper> resolvedFields = new ConcurrentHashMap<>();
+    private final Map<String, FieldNode> resolvedFieldNodes = new ConcurrentHashMap<>();
+    private volatile int resolvedVersion;
+
+    // Hash of the bytes the class was loaded from, null if
+    // it wasn't loaded from bytes
+    private String fingerprint;
+    private byte[] original;
+    // Whether the class itself (not the code of its methods)
+    // has been changed since it was loaded
+    private volatile boolean dirty;
+
     public ClassWrapper(ClassSet classSet, ClassNode node) {
         this(classSet, node, false);
     }
@@ -39,15 +64,32 @@ public class ClassWrapper {
         this.classSet = classSet;
         this.node = node;
         this.hidden = hidden;
+        resolvedVersion = classSet.getMemberVersion();
 
-        node.methods.forEach(v -> methods.add(new MethodWrapper(this, v)));
-        node.fields.forEach(v -> fields.add(new FieldWrapper(this, v)));
+        node.methods.forEach(v -> {
+            MethodWrapper wrapper = new MethodWrapper(this, v);
+            methods.add(wrapper);
+            methodIndex.put(key(v.name, v.desc), wrapper);
+            methodNodeIndex.put(key(v.name, v.desc), v);
+        });
+        node.fields.forEach(v -> {
+            FieldWrapper wrapper = new FieldWrapper(this, v);
+            fields.add(wrapper);
+            fieldIndex.put(key(v.name, v.desc), wrapper);
+            fieldNodeIndex.put(key(v.name, v.desc), v);
+        });
         if (hidden) {
             methods.forEach(v -> v.hidden = true);
             fields.forEach(v -> v.hidden = true);
         }
     }
 
+    // Descriptors can't be a prefix of another descriptor so
+    // this can't collide
+    private static String key(String name, String desc) {
+        return desc + name;
+    }
+
     public ClassNode getNode() {
         return node;
     }
@@ -56,6 +98,26 @@ public class ClassWrapper {
         return hidden;
     }
 
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    byte[] getOriginal() {
+        return original;
+    }
+
+    void setOriginal(byte[] original) {
+        this.original = original;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
     public ClassSet getClassSet() {
         return classSet;
     }
@@ -64,8 +126,8 @@ public class ClassWrapper {
         return methods;
     }
 
-    // Shouldn't ever been updated so we cache
-    private MethodWrapper[] methodCache;
+    // Only changed by patches being applied so we cache
+    private volatile MethodWrapper[] methodCache;
 
     public MethodWrapper[] getMethods(boolean stripHidden) {
         if (stripHidden) {
@@ -79,29 +141,59 @@ public class ClassWrapper {
         return getMethods().toArray(new MethodWrapper[getMethods().size()]);
     }
 
+    public void addMethod(MethodWrapper wrapper, MethodNode methodNode) {
+        methods.add(wrapper);
+        node.methods.add(methodNode);
+        methodIndex.put(key(wrapper.getName(), wrapper.getDesc()), wrapper);
+        methodNodeIndex.put(key(methodNode.name, methodNode.desc), methodNode);
+        dirty = true;
+        membersChanged();
+    }
+
+    public void replaceMethod(MethodWrapper target, MethodWrapper wrapper) {
+        methods.remove(target);
+        methods.add(wrapper);
+        methodIndex.put(key(wrapper.getName(), wrapper.getDesc()), wrapper);
+        membersChanged();
+    }
+
+    public MethodWrapper getDeclaredMethod(String name, String desc) {
+        return methodIndex.get(key(name, desc));
+    }
+
     public MethodNode getMethodNode(MethodWrapper wrapper) {
-        MethodNode mn = node.methods.stream()
-            .filter(m -> m.name.equals(wrapper.getName())
-                && m.desc.equals(wrapper.getDesc()))
-            .findFirst().orElse(null);
+        String key = key(wrapper.getName(), wrapper.getDesc());
+        MethodNode mn = methodNodeIndex.get(key);
         if (mn == null && node.superName != null) {
-            ClassWrapper owner = classSet.getClassWrapper(node.superName);
-            if (owner != null) {
-                mn = owner.getMethodNode(wrapper);
+            checkResolved();
+            mn = resolvedMethodNodes.get(key);
+            if (mn == null) {
+                ClassWrapper owner = classSet.getClassWrapper(node.superName);
+                if (owner != null) {
+                    mn = owner.getMethodNode(wrapper);
+                    if (mn != null) {
+                        resolvedMethodNodes.put(key, mn);
+                    }
+                }
             }
         }
         return mn;
     }
 
     public MethodWrapper getMethod(String name, String desc) {
-        MethodWrapper wrap = methods.stream()
-            .filter(m -> m.getName().equals(name)
-                && m.getDesc().equals(desc))
-            .findFirst().orElse(null);
+        String key = key(name, desc);
+        MethodWrapper wrap = methodIndex.get(key);
         if (wrap == null && node.superName != null) {
-            ClassWrapper owner = classSet.getClassWrapper(node.superName);
-            if (owner != null) {
-                wrap = owner.getMethod(name, desc);
+            checkResolved();
+            wrap = resolvedMethods.get(key);
+            if (wrap == null) {
+                ClassWrapper owner = classSet.getClassWrapper(node.superName);
+                if (owner != null) {
+                    wrap = owner.getMethod(name, desc);
+                    if (wrap != null) {
+                        resolvedMethods.put(key, wrap);
+                    }
+                }
             }
         }
         return wrap;
@@ -111,8 +203,8 @@ public class ClassWrapper {
         return fields;
     }
 
-    // Shouldn't ever been updated so we cache
-    private FieldWrapper[] fieldCache;
+    // Only changed by patches being applied so we cache
+    private volatile FieldWrapper[] fieldCache;
 
     public FieldWrapper[] getFields(boolean stripHidden) {
         if (stripHidden) {
@@ -126,34 +218,96 @@ public class ClassWrapper {
         return getFields().toArray(new FieldWrapper[getFields().size()]);
     }
 
+    public void addField(FieldWrapper wrapper, FieldNode fieldNode) {
+        fields.add(wrapper);
+        node.fields.add(fieldNode);
+        fieldIndex.put(key(wrapper.getName(), wrapper.getDesc()), wrapper);
+        fieldNodeIndex.put(key(fieldNode.name, fieldNode.desc), fieldNode);
+        dirty = true;
+        membersChanged();
+    }
+
+    public void removeField(FieldWrapper wrapper) {
+        String key = key(wrapper.getName(), wrapper.getDesc());
+        FieldNode fieldNode = fieldNodeIndex.remove(key);
+        if (fieldNode != null) {
+            node.fields.remove(fieldNode);
+        }
+        if (fieldIndex.get(key) == wrapper) {
+            fieldIndex.remove(key);
+            fields.remove(wrapper);
+        }
+        dirty = true;
+        membersChanged();
+    }
+
     public FieldWrapper getField(String name, String desc) {
-        FieldWrapper wrap = fields.stream()
-            .filter(f -> f.getName().equals(name)
-                && f.getDesc().equals(desc))
-            .findFirst().orElse(null);
+        String key = key(name, desc);
+        FieldWrapper wrap = fieldIndex.get(key);
         if (wrap == null && node.superName != null) {
-            ClassWrapper owner = classSet.getClassWrapper(node.superName);
-            if (owner != null) {
-                wrap = owner.getField(name, desc);
+            checkResolved();
+            wrap = resolvedFields.get(key);
+            if (wrap == null) {
+                ClassWrapper owner = classSet.getClassWrapper(node.superName);
+                if (owner != null) {
+                    wrap = owner.getField(name, desc);
+                    if (wrap != null) {
+                        resolvedFields.put(key, wrap);
+                    }
+                }
             }
         }
         return wrap;
     }
 
     public FieldNode getFieldNode(FieldWrapper fieldWrapper) {
-        FieldNode fn = node.fields.stream()
-            .filter(f -> f.name.equals(fieldWrapper.getName())
-                && f.desc.equals(fieldWrapper.getDesc()))
-            .findFirst().orElse(null);
+        String key = key(fieldWrapper.getName(), fieldWrapper.getDesc());
+        FieldNode fn = fieldNodeIndex.get(key);
         if (fn == null && node.superName != null) {
-            ClassWrapper owner = classSet.getClassWrapper(node.superName);
-            if (owner != null) {
-                fn = owner.getFieldNode(fieldWrapper);
+            checkResolved();
+            fn = resolvedFieldNodes.get(key);
+            if (fn == null) {
+                ClassWrapper owner = classSet.getClassWrapper(node.superName);
+                if (owner != null) {
+                    fn = owner.getFieldNode(fieldWrapper);
+                    if (fn != null) {
+                        resolvedFieldNodes.put(key, fn);
+                    }
+                }
             }
         }
         return fn;
     }
 
+    public void setSuperName(String superName) {
+        node.superName = superName;
+        dirty = true;
+        membersChanged();
+    }
+
+    public void addInterface(String name) {
+        node.interfaces.add(name);
+        dirty = true;
+        membersChanged();
+    }
+
+    private void membersChanged() {
+        methodCache = null;
+        fieldCache = null;
+        classSet.membersChanged();
+    }
+
+    private void checkResolved() {
+        int version = classSet.getMemberVersion();
+        if (version != resolvedVersion) {
+            resolvedMethods.clear();
+            resolvedMethodNodes.clear();
+            resolvedFields.clear();
+            resolvedFieldNodes.clear();
+            resolvedVersion = version;
+        }
+    }
+
     @Override
     public String toString() {
         return "ClassWrapper{" + node.name + "}";
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.patchtools.wrappers;
+
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+// A method read with ClassReader.SKIP_CODE. The code is read
+// from the class's bytes the first time it is needed, until
+// then only the signature and attributes are filled in
+public class LazyMethodNode extends MethodNode {
+
+    private final String originalName;
+    private final String originalDesc;
+    private volatile byte[] classBytes;
+
+    LazyMethodNode(byte[] classBytes, int access, String name, String desc, String signature, String[] exceptions) {
+        super(Opcodes.ASM5, access, name, desc, signature, exceptions);
+        this.classBytes = classBytes;
+        originalName = name;
+        originalDesc = desc;
+    }
+
+    // Must be called before the instructions, try catch blocks
+    // or locals of a method from the class set are used
+    public static MethodNode load(MethodNode node) {
+        if (node instanceof LazyMethodNode) {
+            ((LazyMethodNode) node).loadCode();
+        }
+        return node;
+    }
+
+    public static void load(ClassNode node) {
+        node.methods.forEach(LazyMethodNode::load);
+    }
+
+    private void loadCode() {
+        if (classBytes == null) return;
+        synchronized (this) {
+            if (classBytes == null) return;
+            new ClassReader(classBytes).accept(new ClassVisitor(Opcodes.ASM5) {
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                    if (name.equals(originalName) && desc.equals(originalDesc)) {
+                        return new CodeVisitor(LazyMethodNode.this);
+                    }
+                    return null;
+                }
+            }, 0);
+            classBytes = null;
+        }
+    }
+
+    // Only passes on the parts of the method that SKIP_CODE
+    // left out, the rest is already in the node
+    private static class CodeVisitor extends MethodVisitor {
+
+        CodeVisitor(MethodVisitor mv) {
+            super(Opcodes.ASM5, mv);
+        }
+
+        @Override
+        public void visitParameter(String name, int access) {
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotationDefault() {
+            return null;
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            return null;
+        }
+
+        @Override
+        public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String desc, boolean visible) {
+            return null;
+        }
+
+        @Override
+        public AnnotationVisitor visitParameterAnnotation(int parameter, String desc, boolean visible) {
+            return null;
+        }
+
+        @Override
+        public void visitAttribute(Attribute attr) {
+        }
+
+        @Override
+        public void visitEnd() {
+        }
+    }
+
+    // Builds a class node with lazy methods
+    static class SkeletonNode extends ClassNode {
+
+        private final byte[] classBytes;
+
+        SkeletonNode(byte[] classBytes) {
+            super(Opcodes.ASM5);
+            this.classBytes = classBytes;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            MethodNode method = new LazyMethodNode(classBytes, access, name, desc, signature, exceptions);
+            methods.add(method);
+            return method;
+        }
+    }
+}
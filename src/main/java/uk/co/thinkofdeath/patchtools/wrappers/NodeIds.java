@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.patchtools.wrappers;
+
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Gives the classes, methods and fields used while matching
+// small ids (starting from 0) so that candidates can be kept
+// in bit sets and primitive collections. Ids are given out the
+// first time a node is seen and never change
+public class NodeIds {
+
+    private final Registry<ClassNode> classes = new Registry<>();
+    private final Registry<MethodNode> methods = new Registry<>();
+    private final Registry<FieldNode> fields = new Registry<>();
+
+    public int getId(ClassNode node) {
+        return classes.getId(node);
+    }
+
+    public int getId(MethodNode node) {
+        return methods.getId(node);
+    }
+
+    public int getId(FieldNode node) {
+        return fields.getId(node);
+    }
+
+    public ClassNode getClass(int id) {
+        return classes.get(id);
+    }
+
+    public MethodNode getMethod(int id) {
+        return methods.get(id);
+    }
+
+    public FieldNode getField(int id) {
+        return fields.get(id);
+    }
+
+    private static class Registry<T> {
+
+        // Nodes don't override equals so this is by identity
+        private final Map<T, Integer> ids = new ConcurrentHashMap<>();
+        private volatile Object[] nodes = new Object[256];
+        private int size;
+
+        int getId(T node) {
+            Integer id = ids.get(node);
+            if (id != null) {
+                return id;
+            }
+            synchronized (this) {
+                id = ids.get(node);
+                if (id != null) {
+                    return id;
+                }
+                if (size == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, size * 2);
+                }
+                // Stored before the id is published so anyone
+                // with the id can find the node
+                nodes[size] = node;
+                ids.put(node, size);
+                return size++;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        T get(int id) {
+            return (T) nodes[id];
+        }
+    }
+}
@@ -25,6 +25,8 @@ import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
 import java.io.IOException;
 import java.io.InputStream;
 
+import static org.junit.Assert.assertEquals;
+
 public class DisassembleTest {
 
     @Test
@@ -39,6 +41,24 @@ public class DisassembleTest {
         disassembler.disassemble("uk/co/thinkofdeath/patchtools/testcode/DisassembleClass");
     }
 
+    @Test
+    public void lazy() {
+        ClassSet classSet = new ClassSet(new ClassPathWrapper());
+        classSet.add(
+                getClass("uk/co/thinkofdeath/patchtools/testcode/DisassembleClass")
+        );
+        ClassSet lazySet = new ClassSet(new ClassPathWrapper());
+        lazySet.setLazy(true);
+        lazySet.add(
+                getClass("uk/co/thinkofdeath/patchtools/testcode/DisassembleClass")
+        );
+
+        assertEquals(
+                new Disassembler(classSet).disassemble("uk/co/thinkofdeath/patchtools/testcode/DisassembleClass"),
+                new Disassembler(lazySet).disassemble("uk/co/thinkofdeath/patchtools/testcode/DisassembleClass")
+        );
+    }
+
     public static byte[] getClass(String name) {
         try (InputStream inputStream = PatchTest.class.getResourceAsStream("/" + name + ".class")) {
             return ByteStreams.toByteArray(inputStream);
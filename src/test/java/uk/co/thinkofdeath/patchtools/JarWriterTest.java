@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.patchtools;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.co.thinkofdeath.patchtools.main.JarWriter;
+import uk.co.thinkofdeath.patchtools.wrappers.ClassPathWrapper;
+import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.*;
+
+import static org.junit.Assert.*;
+
+public class JarWriterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws Exception {
+        byte[] text = Strings.repeat("Hello world\n", 100).getBytes(StandardCharsets.UTF_8);
+        byte[] basic = PatchTest.getClass("uk/co/thinkofdeath/patchtools/testcode/BasicClass");
+        byte[] basic2 = PatchTest.getClass("uk/co/thinkofdeath/patchtools/testcode/Basic2Class");
+
+        // Names are written as cp437 without the utf-8 flag
+        File source = temporaryFolder.newFile("source.jar");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(source), Charset.forName("IBM437"))) {
+            out.putNextEntry(new ZipEntry("dir/"));
+            out.closeEntry();
+            put(out, stored("dir/stored.txt", text), text);
+            put(out, deflated("dir/deflated.txt", text), text);
+            // Without the sizes up front they go in a data descriptor
+            put(out, new ZipEntry("dir/descriptor.txt"), text);
+            put(out, new ZipEntry("dir/caf\u00e9.txt"), text);
+            put(out, new ZipEntry("META-INF/MANIFEST.MF"), text);
+            put(out, new ZipEntry("uk/co/thinkofdeath/patchtools/testcode/BasicClass.class"), basic);
+            put(out, new ZipEntry("uk/co/thinkofdeath/patchtools/testcode/Basic2Class.class"), basic2);
+        }
+
+        ClassSet classSet = new ClassSet(new ClassPathWrapper());
+        classSet.add(basic);
+        classSet.add(basic2);
+        // Only BasicClass changes, everything else is copied
+        new Patcher(classSet).apply(getClass().getResourceAsStream("/basic.jpatch"));
+
+        File jar = temporaryFolder.newFile("out.jar");
+        new JarWriter(new ForkJoinPool(2)).write(jar, source, classSet, null);
+
+        // Directories and META-INF aren't written
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        expected.put("dir/stored.txt", text);
+        expected.put("dir/deflated.txt", text);
+        expected.put("dir/descriptor.txt", text);
+        expected.put("dir/caf\u00e9.txt", text);
+        expected.put("uk/co/thinkofdeath/patchtools/testcode/BasicClass.class",
+            classSet.getClass("uk/co/thinkofdeath/patchtools/testcode/BasicClass"));
+        expected.put("uk/co/thinkofdeath/patchtools/testcode/Basic2Class.class", basic2);
+
+        try (ZipFile zip = new ZipFile(jar)) {
+            List<String> names = new ArrayList<>();
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                ZipEntry entry = e.nextElement();
+                names.add(entry.getName());
+                assertTrue(entry.getName(), expected.containsKey(entry.getName()));
+                assertEquals(entry.getName(), expected.get(entry.getName()).length, entry.getSize());
+                try (InputStream in = zip.getInputStream(entry)) {
+                    assertArrayEquals(entry.getName(), expected.get(entry.getName()), ByteStreams.toByteArray(in));
+                }
+            }
+            assertEquals(new ArrayList<>(expected.keySet()), names);
+        }
+
+        try (ZipInputStream zip = new ZipInputStream(new FileInputStream(jar))) {
+            List<String> names = new ArrayList<>();
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                names.add(entry.getName());
+                assertTrue(entry.getName(), expected.containsKey(entry.getName()));
+                // The sizes are in the local header
+                assertEquals(entry.getName(), expected.get(entry.getName()).length, entry.getSize());
+                assertArrayEquals(entry.getName(), expected.get(entry.getName()), ByteStreams.toByteArray(zip));
+            }
+            assertEquals(new ArrayList<>(expected.keySet()), names);
+        }
+    }
+
+    private static void put(ZipOutputStream out, ZipEntry entry, byte[] data) throws IOException {
+        out.putNextEntry(entry);
+        out.write(data);
+        out.closeEntry();
+    }
+
+    private static ZipEntry stored(String name, byte[] data) {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCrc(crc(data));
+        return entry;
+    }
+
+    // Deflated the same way ZipOutputStream does so the sizes can
+    // be given up front
+    private static ZipEntry deflated(String name, byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[data.length + 64];
+        int compressedSize = 0;
+        while (!deflater.finished()) {
+            compressedSize += deflater.deflate(buffer, compressedSize, buffer.length - compressedSize);
+        }
+        deflater.end();
+
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.DEFLATED);
+        entry.setSize(data.length);
+        entry.setCompressedSize(compressedSize);
+        entry.setCrc(crc(data));
+        return entry;
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+}
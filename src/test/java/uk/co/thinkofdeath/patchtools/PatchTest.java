@@ -17,18 +17,35 @@
 package uk.co.thinkofdeath.patchtools;
 
 import com.google.common.io.ByteStreams;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import uk.co.thinkofdeath.patchtools.matching.GroupSolution;
+import uk.co.thinkofdeath.patchtools.matching.MatchCache;
 import uk.co.thinkofdeath.patchtools.testcode.InterfaceTestInterface;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassPathWrapper;
 import uk.co.thinkofdeath.patchtools.wrappers.ClassSet;
+import uk.co.thinkofdeath.patchtools.wrappers.ClassShape;
+import uk.co.thinkofdeath.patchtools.wrappers.ClassWrapper;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.Assert.*;
 
 public class PatchTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void classSetBasic() throws IOException {
         ClassSet classSet = new ClassSet(new ClassPathWrapper());
@@ -47,6 +64,86 @@ public class PatchTest {
         }
     }
 
+    @Test
+    public void libraryClasses() throws IOException {
+        ClassSet classSet = new ClassSet(new ClassPathWrapper());
+        classSet.add(
+                getClass("uk/co/thinkofdeath/patchtools/testcode/BasicClass")
+        );
+        classSet.simplify();
+
+        ClassWrapper string = classSet.getClassWrapper("java/lang/String");
+        assertNotNull(string);
+        assertTrue(string.isHidden());
+        assertSame(string, classSet.getClassWrapper("java/lang/String"));
+        assertNull(classSet.getClassWrapper("does/not/Exist"));
+        assertNull(classSet.getClassWrapper("does/not/Exist"));
+    }
+
+    @Test
+    public void commonSuperClass() throws IOException {
+        ClassSet classSet = new ClassSet(new ClassPathWrapper());
+        classSet.add(getClass("uk/co/thinkofdeath/patchtools/testcode/InheritTestA"));
+        classSet.add(getClass("uk/co/thinkofdeath/patchtools/testcode/InheritTestB"));
+        classSet.simplify();
+
+        String a = "uk/co/thinkofdeath/patchtools/testcode/InheritTestA";
+        String b = "uk/co/thinkofdeath/patchtools/testcode/InheritTestB";
+        assertEquals(a, classSet.getCommonSuperClass(a, b));
+        assertEquals(a, classSet.getCommonSuperClass(b, a));
+        assertEquals("java/lang/Object", classSet.getCommonSuperClass(b, "java/lang/String"));
+        assertEquals("java/lang/Number", classSet.getCommonSuperClass("java/lang/Integer", "java/lang/Long"));
+        assertEquals("java/lang/CharSequence", classSet.getCommonSuperClass("java/lang/CharSequence", "java/lang/String"));
+        assertEquals("java/lang/Object", classSet.getCommonSuperClass("java/lang/Runnable", "java/lang/String"));
+        assertEquals("java/lang/Object", classSet.getCommonSuperClass(a, "does/not/Exist"));
+
+        // Interfaces added by patches are seen
+        assertEquals("java/lang/Object", classSet.getCommonSuperClass("java/lang/Runnable", b));
+        classSet.getClassWrapper(a).addInterface("java/lang/Runnable");
+        assertEquals("java/lang/Runnable", classSet.getCommonSuperClass("java/lang/Runnable", b));
+    }
+
+    @Test
+    public void shapeIndex() throws IOException {
+        ClassSet classSet = new ClassSet(new ClassPathWrapper());
+        classSet.add(getClass("uk/co/thinkofdeath/patchtools/testcode/BasicClass"));
+        classSet.add(getClass("uk/co/thinkofdeath/patchtools/testcode/Basic2Class"));
+        classSet.simplify();
+
+        ClassShape shape = new ClassShape(0, 0, 0);
+        shape.addField(Type.OBJECT, false, false);
+        shape.addMethod(Type.getMethodType("()Ljava/lang/String;"), false, false, false);
+        assertEquals(1, classSet.findClasses(shape).size());
+        assertEquals("uk/co/thinkofdeath/patchtools/testcode/BasicClass",
+                classSet.findClasses(shape).get(0).getNode().name);
+
+        // Only one static method
+        shape.addMethod(Type.getMethodType("()Ljava/lang/Object;"), true, false, false);
+        shape.addMethod(Type.getMethodType("()Ljava/lang/Object;"), true, false, false);
+        assertTrue(classSet.findClasses(shape).isEmpty());
+
+        assertEquals(2, classSet.findClasses(new ClassShape(0, 0, 0)).size());
+        assertTrue(classSet.findClasses(new ClassShape(Opcodes.ACC_INTERFACE, 0, 0)).isEmpty());
+    }
+
+    @Test
+    public void superPatch() throws Exception {
+        ClassSet classSet = new ClassSet(new ClassPathWrapper());
+        classSet.add(getClass("uk/co/thinkofdeath/patchtools/testcode/InheritTestA"));
+        classSet.add(getClass("uk/co/thinkofdeath/patchtools/testcode/SuperTestClass"));
+
+        Patcher patcher = new Patcher(classSet);
+        patcher.apply(getClass().getResourceAsStream("/super.jpatch"));
+
+        ClassSetLoader loader = new ClassSetLoader(classSet);
+        Class<?> res = loader.loadClass("uk.co.thinkofdeath.patchtools.testcode.SuperTestClass");
+
+        assertEquals(Object.class, res.getSuperclass());
+        Constructor<?> constructor = res.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        assertEquals("super", res.getMethod("pick", boolean.class).invoke(constructor.newInstance(), true));
+    }
+
     @Test
     public void basicPatch() throws Exception {
         ClassSet classSet = new ClassSet(new ClassPathWrapper());
@@ -75,6 +172,282 @@ public class PatchTest {
         assertEquals("Cake", res.getMethod("create").invoke(null).toString());
     }
 
+    @Test
+    public void untouchedClasses() throws Exception {
+        byte[] basic = getClass("uk/co/thinkofdeath/patchtools/testcode/BasicClass");
+        byte[] basic2 = getClass("uk/co/thinkofdeath/patchtools/testcode/Basic2Class");
+        ClassSet classSet = new ClassSet(new ClassPathWrapper());
+        classSet.add(basic);
+        classSet.add(basic2);
+
+        Patcher patcher = new Patcher(classSet);
+
+        patcher.apply(
+                getClass().getResourceAsStream("/basic.jpatch")
+        );
+
+        assertArrayEquals(basic2, classSet.getClass("uk/co/thinkofdeath/patchtools/testcode/Basic2Class"));
+        assertFalse(Arrays.equals(basic, classSet.getClass("uk/co/thinkofdeath/patchtools/testcode/BasicClass")));
+
+        ClassSetLoader loader = new ClassSetLoader(classSet);
+        Class<?> res = loader.loadClass("uk.co.thinkofdeath.patchtools.testcode.BasicClass");
+
+        assertEquals("Hello jim", res.getMethod("hello").invoke(
+                res.newInstance()
+        ));
+        assertEquals("Cake", res.getMethod("create").invoke(null).toString());
+    }
+
+    @Test
+    public void matchOnlyClasses() throws Exception {
+        ClassSet classSet = new ClassSet(new ClassPathWrapper());
+        classSet.add(getClass("uk/co/thinkofdeath/patchtools/testcode/TwinTestA"));
+        classSet.add(getClass("uk/co/thinkofdeath/patchtools/testcode/TwinTestB"));
+
+        Patcher patcher = new Patcher(classSet);
+        PatchScope scope = patcher.apply(getClass().getResourceAsStream("/twin.jpatch"));
+
+        // The patch only has match lines so nothing was changed
+        ClassWrapper twin = scope.getClass("Twin");
+        assertFalse(classSet.isDirty(twin));
+        assertArrayEquals(getClass(twin.getNode().name), classSet.getClass(twin.getNode().name));
+    }
+
+    @Test
+    public void mappedPatch() throws Exception {
+        ClassSet classSet = new ClassSet(new ClassPathWrapper());
+        classSet.add(getClass("uk/co/thinkofdeath/patchtools/testcode/BasicClass"));
+        classSet.add(getClass("uk/co/thinkofdeath/patchtools/testcode/Basic2Class"));
+
+        Patcher patcher = new Patcher(classSet);
+
+        PatchScope scope = patcher.apply(
+                getClass().getResourceAsStream("/basic.jpatch")
+        );
+
+        byte[] basic2 = classSet.getClass("uk/co/thinkofdeath/patchtools/testcode/Basic2Class", scope);
+        assertEquals("uk/co/thinkofdeath/patchtools/testcode/Basic2Class", new ClassReader(basic2).getClassName());
+
+        byte[] basic = classSet.getClass("uk/co/thinkofdeath/patchtools/testcode/BasicClass", scope);
+        class MappedLoader extends ClassLoader {
+            Class<?> define(String name, byte[] data) {
+                return defineClass(name, data, 0, data.length);
+            }
+        }
+        Class<?> res = new MappedLoader().define("Basic", basic);
+
+        assertEquals("Hello jim", res.getMethod("sayHello").invoke(
+                res.newInstance()
+        ));
+        assertEquals("Cake", res.getMethod("staticCreate").invoke(null).toString());
+    }
+
+    @Test
+    public void parallelPatch() throws Exception {
+        ClassSet classSet = new ClassSet(new ClassPathWrapper());
+        classSet.add(
+                getClass("uk/co/thinkofdeath/patchtools/testcode/BasicClass")
+        );
+        classSet.add(
+                getClass("uk/co/thinkofdeath/patchtools/testcode/Basic2Class")
+        );
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Patcher patcher = new Patcher(classSet, pool);
+
+            patcher.apply(
+                    getClass().getResourceAsStream("/basic.jpatch")
+            );
+        } finally {
+            pool.shutdown();
+        }
+
+        ClassSetLoader loader = new ClassSetLoader(classSet);
+        Class<?> res = loader.loadClass("uk.co.thinkofdeath.patchtools.testcode.BasicClass");
+
+        assertEquals("Hello jim", res.getMethod("hello").invoke(
+                res.newInstance()
+        ));
+        assertEquals("Cake", res.getMethod("create").invoke(null).toString());
+    }
+
+    @Test
+    public void parallelSameMatch() throws Exception {
+        String expected = twinMatch(null);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int i = 0; i < 20; i++) {
+                assertEquals(expected, twinMatch(pool));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private String twinMatch(ForkJoinPool pool) throws IOException {
+        return twinMatch(pool, null, null);
+    }
+
+    private String twinMatch(ForkJoinPool pool, PatchScope previous, Map<String, String> fingerprints) throws IOException {
+        ClassSet classSet = new ClassSet(new ClassPathWrapper());
+        classSet.add(getClass("uk/co/thinkofdeath/patchtools/testcode/TwinTestA"));
+        classSet.add(getClass("uk/co/thinkofdeath/patchtools/testcode/TwinTestB"));
+
+        Patcher patcher = pool == null ? new Patcher(classSet) : new Patcher(classSet, pool);
+        if (previous != null) {
+            patcher.setPrevious(previous, fingerprints);
+        }
+        PatchScope scope = patcher.apply(getClass().getResourceAsStream("/twin.jpatch"));
+        return scope.getClass("Twin").getNode().name;
+    }
+
+    @Test
+    public void lazyPatch() throws Exception {
+        ClassSet classSet = new ClassSet(new ClassPathWrapper());
+        classSet.setLazy(true);
+        classSet.add(
+                getClass("uk/co/thinkofdeath/patchtools/testcode/BasicClass")
+        );
+        classSet.add(
+                getClass("uk/co/thinkofdeath/patchtools/testcode/Basic2Class")
+        );
+
+        Patcher patcher = new Patcher(classSet);
+
+        patcher.apply(
+                getClass().getResourceAsStream("/basic.jpatch")
+        );
+
+        ClassSetLoader loader = new ClassSetLoader(classSet);
+        Class<?> res = loader.loadClass("uk.co.thinkofdeath.patchtools.testcode.BasicClass");
+
+        assertEquals("Hello jim", res.getMethod("hello").invoke(
+                res.newInstance()
+        ));
+        assertEquals("Hello world", res.getMethod("addedMethod").invoke(
+                res.newInstance()
+        ));
+        assertEquals("Cake", res.getMethod("create").invoke(null).toString());
+    }
+
+    @Test
+    public void cachedPatch() throws Exception {
+        File cacheDir = temporaryFolder.newFolder();
+        for (int i = 0; i < 2; i++) {
+            ClassSet classSet = new ClassSet(new ClassPathWrapper());
+            classSet.add(
+                    getClass("uk/co/thinkofdeath/patchtools/testcode/BasicClass")
+            );
+            classSet.add(
+                    getClass("uk/co/thinkofdeath/patchtools/testcode/Basic2Class")
+            );
+
+            int[] hits = new int[1];
+            int[] stores = new int[1];
+            Patcher patcher = new Patcher(classSet);
+            patcher.setMatchCache(new MatchCache(cacheDir) {
+                @Override
+                public GroupSolution load(String key) {
+                    GroupSolution solution = super.load(key);
+                    if (solution != null) {
+                        hits[0]++;
+                    }
+                    return solution;
+                }
+
+                @Override
+                public void store(String key, GroupSolution solution) {
+                    stores[0]++;
+                    super.store(key, solution);
+                }
+            });
+
+            patcher.apply(
+                    getClass().getResourceAsStream("/basic.jpatch")
+            );
+            assertTrue(cacheDir.list().length > 0);
+            if (i == 0) {
+                assertEquals(0, hits[0]);
+                assertTrue(stores[0] > 0);
+            } else {
+                // Only matches that had to be searched for are stored
+                assertTrue(hits[0] > 0);
+                assertEquals(0, stores[0]);
+            }
+
+            ClassSetLoader loader = new ClassSetLoader(classSet);
+            Class<?> res = loader.loadClass("uk.co.thinkofdeath.patchtools.testcode.BasicClass");
+
+            assertEquals("Hello jim", res.getMethod("hello").invoke(
+                    res.newInstance()
+            ));
+            assertEquals("Cake", res.getMethod("create").invoke(null).toString());
+        }
+    }
+
+    @Test
+    public void incrementalPatch() throws Exception {
+        PatchScope previous = null;
+        Map<String, String> fingerprints = null;
+        for (int i = 0; i < 2; i++) {
+            ClassSet classSet = new ClassSet(new ClassPathWrapper());
+            classSet.add(
+                    getClass("uk/co/thinkofdeath/patchtools/testcode/BasicClass")
+            );
+            classSet.add(
+                    getClass("uk/co/thinkofdeath/patchtools/testcode/Basic2Class")
+            );
+
+            Patcher patcher = new Patcher(classSet);
+            if (previous != null) {
+                patcher.setPrevious(previous, fingerprints);
+            }
+            fingerprints = classSet.getFingerprints();
+
+            previous = patcher.apply(
+                    getClass().getResourceAsStream("/basic.jpatch")
+            );
+            assertSame(classSet.getClassWrapper("uk/co/thinkofdeath/patchtools/testcode/BasicClass"),
+                    previous.getClass("Basic"));
+
+            ClassSetLoader loader = new ClassSetLoader(classSet);
+            Class<?> res = loader.loadClass("uk.co.thinkofdeath.patchtools.testcode.BasicClass");
+
+            assertEquals("Hello jim", res.getMethod("hello").invoke(
+                    res.newInstance()
+            ));
+            assertEquals("Cake", res.getMethod("create").invoke(null).toString());
+        }
+    }
+
+    @Test
+    public void incrementalReuse() throws Exception {
+        // Both twins match the patch, a fresh search always picks the same one
+        String fresh = twinMatch(null);
+        String other = fresh.equals("uk/co/thinkofdeath/patchtools/testcode/TwinTestA")
+                ? "uk/co/thinkofdeath/patchtools/testcode/TwinTestB"
+                : "uk/co/thinkofdeath/patchtools/testcode/TwinTestA";
+
+        // A previous run that only had the other one
+        ClassSet classSet = new ClassSet(new ClassPathWrapper());
+        classSet.add(getClass(other));
+        Map<String, String> fingerprints = classSet.getFingerprints();
+        PatchScope previous = new Patcher(classSet).apply(getClass().getResourceAsStream("/twin.jpatch"));
+
+        assertEquals(other, twinMatch(null, previous, fingerprints));
+
+        // Once the class has changed it has to be matched again
+        fingerprints.put(other, "changed");
+        assertEquals(fresh, twinMatch(null, previous, fingerprints));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void previousWithoutFingerprints() throws Exception {
+        ClassSet classSet = new ClassSet(new ClassPathWrapper());
+        new Patcher(classSet).setPrevious(new PatchScope(), null);
+    }
+
     @Test
     public void invoke() throws Exception {
         ClassSet classSet = new ClassSet(new ClassPathWrapper());
@@ -179,6 +552,45 @@ public class PatchTest {
         assertEquals("HelloABCTesting", res.getMethod("message").invoke(null));
     }
 
+    @Test
+    public void multipleWildcards() throws Exception {
+        ClassSet classSet = new ClassSet(new ClassPathWrapper());
+        classSet.add(getClass("uk/co/thinkofdeath/patchtools/testcode/ComplexInstruction"));
+
+        Patcher patcher = new Patcher(classSet);
+
+        patcher.apply(
+                getClass().getResourceAsStream("/wildcard.jpatch")
+        );
+
+        ClassSetLoader loader = new ClassSetLoader(classSet);
+        Class<?> res = loader.loadClass("uk.co.thinkofdeath.patchtools.testcode.ComplexInstruction");
+
+        assertEquals("HelloHelloDone", res.getMethod("message").invoke(null));
+    }
+
+    @Test
+    public void wildcardEarlyReturn() throws Exception {
+        ClassSet classSet = new ClassSet(new ClassPathWrapper());
+        classSet.add(getClass("uk/co/thinkofdeath/patchtools/testcode/EarlyReturnClass"));
+
+        Patcher patcher = new Patcher(classSet);
+
+        patcher.apply(
+                getClass().getResourceAsStream("/early.jpatch")
+        );
+
+        ClassSetLoader loader = new ClassSetLoader(classSet);
+        Class<?> res = loader.loadClass("uk.co.thinkofdeath.patchtools.testcode.EarlyReturnClass");
+
+        assertEquals("first", res.getMethod("pick", boolean.class).invoke(null, true));
+        assertEquals("changed", res.getMethod("pick", boolean.class).invoke(null, false));
+
+        assertEquals("first", res.getMethod("pickTwo", boolean.class, boolean.class).invoke(null, true, false));
+        assertEquals("changed", res.getMethod("pickTwo", boolean.class, boolean.class).invoke(null, false, true));
+        assertEquals("none", res.getMethod("pickTwo", boolean.class, boolean.class).invoke(null, false, false));
+    }
+
     public static byte[] getClass(String name) {
         try (InputStream inputStream = PatchTest.class.getResourceAsStream("/" + name + ".class")) {
             return ByteStreams.toByteArray(inputStream);